@@ -0,0 +1,69 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.remote.admin.wiring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+
+/**
+ * Encodes and decodes the messages exchanged between client and server endpoints.
+ * <p>
+ * Messages always have the structure of a JSON document, so the endpoints can read and write them through the
+ * Jackson streaming API regardless of the codec that is used. A codec only determines how this structure is
+ * represented on the wire.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public interface InvocationCodec {
+
+    /**
+     * @return the name of this codec as used in the {@link WiringAdminConstants#CODECS} endpoint property, never
+     *         <code>null</code>.
+     */
+    String getName();
+
+    /**
+     * Determines whether a received message was encoded with this codec. Does not change the position of the given
+     * buffer.
+     *
+     * @param message the received message, cannot be <code>null</code>.
+     * @return <code>true</code> if this codec can decode the message, <code>false</code> otherwise.
+     */
+    boolean isEncoded(ByteBuffer message);
+
+    /**
+     * Creates a parser for a received message. Does not change the position of the given buffer.
+     *
+     * @param message the received message, cannot be <code>null</code>.
+     * @return a parser positioned before the first token of the message, never <code>null</code>.
+     * @throws IOException in case the message could not be decoded.
+     */
+    JsonParser createParser(ByteBuffer message) throws IOException;
+
+    /**
+     * Creates a parser for a message that is still being received. Codecs that cannot decode a message
+     * incrementally read it completely first.
+     *
+     * @param message the stream of the received message, cannot be <code>null</code>. It is not closed
+     *        by the parser.
+     * @return a parser positioned before the first token of the message, never <code>null</code>.
+     * @throws IOException in case the message could not be received or decoded.
+     */
+    JsonParser createParser(InputStream message) throws IOException;
+
+    /**
+     * Creates a generator for a message to send. The message is only guaranteed to be written completely to the
+     * given output stream after the generator is closed.
+     *
+     * @param out the output stream to write the message to, cannot be <code>null</code>.
+     * @return a generator, never <code>null</code>.
+     * @throws IOException in case the generator could not be created.
+     */
+    JsonGenerator createGenerator(OutputStream out) throws IOException;
+}
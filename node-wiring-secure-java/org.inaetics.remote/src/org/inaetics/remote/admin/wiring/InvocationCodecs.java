@@ -0,0 +1,99 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.remote.admin.wiring;
+
+import static org.inaetics.remote.ServiceUtil.getStringPlusValue;
+import static org.inaetics.remote.admin.wiring.WiringAdminConstants.CODECS;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * The {@link InvocationCodec}s supported by an endpoint, in order of preference.
+ * <p>
+ * Exported endpoints announce the names of their codecs through the {@link WiringAdminConstants#CODECS} endpoint
+ * property. Importing endpoints use the first announced codec they support, and fall back to JSON for endpoints that
+ * do not announce any codecs. Exported endpoints detect the codec of each request and encode the response with the
+ * same codec.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class InvocationCodecs {
+
+    private final JsonInvocationCodec m_jsonCodec;
+    private final Map<String, InvocationCodec> m_codecs;
+
+    public InvocationCodecs(ObjectMapper objectMapper) {
+        m_jsonCodec = new JsonInvocationCodec(objectMapper);
+        m_codecs = new LinkedHashMap<String, InvocationCodec>();
+        add(new SmileInvocationCodec(objectMapper));
+        add(m_jsonCodec);
+    }
+
+    /**
+     * @return the JSON codec, which is supported by all endpoints, never <code>null</code>.
+     */
+    public JsonInvocationCodec getJsonCodec() {
+        return m_jsonCodec;
+    }
+
+    /**
+     * @return the value of the {@link WiringAdminConstants#CODECS} endpoint property, never <code>null</code>.
+     */
+    public String getCodecNames() {
+        StringBuilder names = new StringBuilder();
+        for (String name : m_codecs.keySet()) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(name);
+        }
+        return names.toString();
+    }
+
+    /**
+     * Selects the codec to use for invocations of an imported endpoint.
+     *
+     * @param endpoint the description of the imported endpoint, cannot be <code>null</code>.
+     * @return the first codec announced by the endpoint that is supported, or the JSON codec, never <code>null</code>.
+     */
+    public InvocationCodec negotiate(EndpointDescription endpoint) {
+        Object value = endpoint.getProperties().get(CODECS);
+        if (value == null) {
+            return m_jsonCodec;
+        }
+        for (String names : getStringPlusValue(value)) {
+            for (String name : names.split(",")) {
+                InvocationCodec codec = m_codecs.get(name.trim());
+                if (codec != null) {
+                    return codec;
+                }
+            }
+        }
+        return m_jsonCodec;
+    }
+
+    /**
+     * Selects the codec a received message was encoded with.
+     *
+     * @param message the received message, cannot be <code>null</code>.
+     * @return the codec of the message, or the JSON codec if it cannot be determined, never <code>null</code>.
+     */
+    public InvocationCodec select(ByteBuffer message) {
+        for (InvocationCodec codec : m_codecs.values()) {
+            if (codec.isEncoded(message)) {
+                return codec;
+            }
+        }
+        return m_jsonCodec;
+    }
+
+    private void add(InvocationCodec codec) {
+        m_codecs.put(codec.getName(), codec);
+    }
+}
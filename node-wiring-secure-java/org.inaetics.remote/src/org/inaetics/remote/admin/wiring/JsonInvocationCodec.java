@@ -0,0 +1,81 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.remote.admin.wiring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * {@link InvocationCodec} that represents messages as textual JSON. This is the codec that is understood by all
+ * endpoints.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class JsonInvocationCodec implements InvocationCodec {
+
+    public static final String NAME = "json";
+
+    private final JsonFactory m_jsonFactory;
+
+    public JsonInvocationCodec(ObjectMapper objectMapper) {
+        m_jsonFactory = new JsonFactory(objectMapper);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEncoded(ByteBuffer message) {
+        for (int i = message.position(); i < message.limit(); i++) {
+            byte b = message.get(i);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b == '{';
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public JsonParser createParser(ByteBuffer message) throws IOException {
+        if (message.hasArray()) {
+            return m_jsonFactory.createJsonParser(message.array(), message.arrayOffset() + message.position(),
+                message.remaining());
+        }
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        return m_jsonFactory.createJsonParser(bytes);
+    }
+
+    @Override
+    public JsonParser createParser(InputStream message) throws IOException {
+        JsonParser parser = m_jsonFactory.createJsonParser(message);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return parser;
+    }
+
+    /**
+     * Creates a parser for a message that was received as text.
+     *
+     * @param message the received message, cannot be <code>null</code>.
+     * @return a parser positioned before the first token of the message, never <code>null</code>.
+     * @throws IOException in case the parser could not be created.
+     */
+    public JsonParser createParser(String message) throws IOException {
+        return m_jsonFactory.createJsonParser(message);
+    }
+
+    @Override
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return m_jsonFactory.createJsonGenerator(out);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.remote.admin.wiring;
+
+import static org.inaetics.remote.admin.wiring.WiringAdminUtil.getMethodSignature;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.type.TypeFactory;
+import org.codehaus.jackson.type.JavaType;
+
+/**
+ * Immutable, precomputed information needed to (de)serialize invocations of a single remoted method, so
+ * the per-call path only needs to do lookups.
+ * <p>
+ * Invocations are dispatched through a {@link MethodHandle} bound at creation time, which takes the
+ * service and a spread argument array, instead of through {@link Method#invoke(Object, Object...)}.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class MethodInvocationPlan {
+
+    private final Method m_method;
+    private final MethodHandle m_invoker;
+    private final String m_signature;
+    private final JavaType[] m_parameterTypes;
+    // the parameter types, with primitive types replaced by their wrapper types
+    private final Class<?>[] m_argumentTypes;
+    private final ObjectReader[] m_parameterReaders;
+    private final JavaType m_returnType;
+    private final ObjectReader m_returnReader;
+    private final ObjectWriter m_returnWriter;
+    private final boolean m_void;
+
+    /**
+     * Creates a plan that can only be used to (de)serialize invocations, not to invoke them.
+     * 
+     * @param method the method to create the plan for;
+     * @param objectMapper the object mapper to create the readers and writers with.
+     */
+    public MethodInvocationPlan(Method method, ObjectMapper objectMapper) {
+        this(method, objectMapper, (MethodHandle) null);
+    }
+
+    /**
+     * Creates a plan that can also be used to invoke the method on a service.
+     * 
+     * @param method the method to create the plan for, should be accessible to this class;
+     * @param objectMapper the object mapper to create the readers and writers with;
+     * @param lookup the lookup to bind the invoker of the method with.
+     * @throws IllegalAccessException in case the method is not accessible.
+     */
+    public MethodInvocationPlan(Method method, ObjectMapper objectMapper, MethodHandles.Lookup lookup)
+        throws IllegalAccessException {
+        this(method, objectMapper, createInvoker(method, lookup));
+    }
+
+    private MethodInvocationPlan(Method method, ObjectMapper objectMapper, MethodHandle invoker) {
+        TypeFactory typeFactory = objectMapper.getTypeFactory();
+
+        m_method = method;
+        m_invoker = invoker;
+        m_signature = getMethodSignature(method);
+
+        Type[] types = method.getGenericParameterTypes();
+        m_parameterTypes = new JavaType[types.length];
+        m_parameterReaders = new ObjectReader[types.length];
+        for (int i = 0; i < types.length; i++) {
+            m_parameterTypes[i] = typeFactory.constructType(types[i]);
+            m_parameterReaders[i] = objectMapper.reader(m_parameterTypes[i]);
+        }
+        m_argumentTypes = MethodType.methodType(void.class, method.getParameterTypes()).wrap().parameterArray();
+
+        m_void = Void.TYPE.equals(method.getReturnType());
+        m_returnType = typeFactory.constructType(method.getGenericReturnType());
+        m_returnReader = m_void ? null : objectMapper.reader(m_returnType);
+        // only final types can be written by their declared type, other return values are written by
+        // their runtime type in order to not lose any properties of subclasses
+        m_returnWriter =
+            (m_returnType.isFinal() && !m_returnType.isPrimitive()) ? objectMapper.writerWithType(m_returnType)
+                : objectMapper.writer();
+    }
+
+    /**
+     * @return the method this plan is for, never <code>null</code>.
+     */
+    public Method getMethod() {
+        return m_method;
+    }
+
+    private static MethodHandle createInvoker(Method method, MethodHandles.Lookup lookup)
+        throws IllegalAccessException {
+        int parameterCount = method.getParameterTypes().length;
+        // (Object service, Object[] arguments)Object, void methods return null
+        return lookup.unreflect(method)
+            .asType(MethodType.genericMethodType(parameterCount + 1))
+            .asSpreader(Object[].class, parameterCount);
+    }
+
+    /**
+     * Invokes the method on the given service.
+     * 
+     * @param service the service to invoke the method on, cannot be <code>null</code>;
+     * @param arguments the arguments, should match the parameter count of the method.
+     * @return the result of the invocation, <code>null</code> if the method is void.
+     * @throws InvocationTargetException in case the invoked method threw an exception, wrapping the
+     *         actual cause, like {@link Method#invoke(Object, Object...)} does.
+     * @throws IllegalArgumentException in case the service or arguments do not match the method.
+     * @throws IllegalStateException in case this plan was created without an invoker.
+     */
+    public Object invoke(Object service, Object[] arguments) throws InvocationTargetException {
+        if (m_invoker == null) {
+            throw new IllegalStateException("No invoker bound for " + m_method);
+        }
+        // checked up front, so the invoker cannot fail on adapting them and everything it throws
+        // is thrown by the invoked method
+        checkArguments(service, arguments);
+        try {
+            return (Object) m_invoker.invokeExact(service, arguments);
+        }
+        catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    private void checkArguments(Object service, Object[] arguments) {
+        if (!m_method.getDeclaringClass().isInstance(service)) {
+            throw new IllegalArgumentException("Service is not an instance of " + m_method.getDeclaringClass().getName());
+        }
+        if (arguments == null || arguments.length != m_argumentTypes.length) {
+            throw new IllegalArgumentException("Wrong number of arguments for " + m_signature);
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] == null ? m_parameterTypes[i].isPrimitive() : !m_argumentTypes[i].isInstance(arguments[i])) {
+                throw new IllegalArgumentException("Argument type mismatch for parameter " + i + " of " + m_signature);
+            }
+        }
+    }
+
+    /**
+     * @return the signature identifying the method in invocation messages, never <code>null</code>.
+     */
+    public String getSignature() {
+        return m_signature;
+    }
+
+    /**
+     * @return the number of parameters of the method.
+     */
+    public int getParameterCount() {
+        return m_parameterTypes.length;
+    }
+
+    /**
+     * @param index the index of the parameter.
+     * @return the type of the parameter, never <code>null</code>.
+     */
+    public JavaType getParameterType(int index) {
+        return m_parameterTypes[index];
+    }
+
+    /**
+     * @param index the index of the parameter.
+     * @return the reader for arguments of the parameter, never <code>null</code>.
+     */
+    public ObjectReader getParameterReader(int index) {
+        return m_parameterReaders[index];
+    }
+
+    /**
+     * @return the generic return type of the method, never <code>null</code>.
+     */
+    public JavaType getReturnType() {
+        return m_returnType;
+    }
+
+    /**
+     * @return the reader for return values of the method, <code>null</code> if the method is void.
+     */
+    public ObjectReader getReturnReader() {
+        return m_returnReader;
+    }
+
+    /**
+     * @return the writer for return values of the method, never <code>null</code>.
+     */
+    public ObjectWriter getReturnWriter() {
+        return m_returnWriter;
+    }
+
+    /**
+     * @return <code>true</code> if the method does not return a value.
+     */
+    public boolean isVoid() {
+        return m_void;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.remote.admin.wiring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.smile.SmileGenerator;
+import org.codehaus.jackson.smile.SmileParser;
+
+/**
+ * {@link InvocationCodec} that represents messages in the binary Smile format.
+ * <p>
+ * Smile encodes the same structure as JSON, but writes numbers in binary form, binary data without Base64 encoding,
+ * and field names that are repeated within a message as back references, which keeps lists of objects small.
+ * Messages are parsed from and generated to their streams directly, without buffering them as a whole.
+ *
+ * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
+ */
+public final class SmileInvocationCodec implements InvocationCodec {
+
+    public static final String NAME = "smile";
+
+    // every Smile message starts with this header, which can never start a JSON document
+    private static final byte[] HEADER = { ':', ')', '\n' };
+
+    private final SmileFactory m_smileFactory;
+
+    public SmileInvocationCodec(ObjectMapper objectMapper) {
+        m_smileFactory = new SmileFactory(objectMapper);
+        // binary data is written as is instead of in 7-bit form, messages are never embedded in text
+        m_smileFactory.disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT);
+        m_smileFactory.enable(SmileParser.Feature.REQUIRE_HEADER);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEncoded(ByteBuffer message) {
+        if (message.remaining() < HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (message.get(message.position() + i) != HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public JsonParser createParser(ByteBuffer message) throws IOException {
+        if (message.hasArray()) {
+            return m_smileFactory.createJsonParser(message.array(), message.arrayOffset() + message.position(),
+                message.remaining());
+        }
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        return m_smileFactory.createJsonParser(bytes);
+    }
+
+    @Override
+    public JsonParser createParser(InputStream message) throws IOException {
+        JsonParser parser = m_smileFactory.createJsonParser(message);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return parser;
+    }
+
+    @Override
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return m_smileFactory.createJsonGenerator(out);
+    }
+}
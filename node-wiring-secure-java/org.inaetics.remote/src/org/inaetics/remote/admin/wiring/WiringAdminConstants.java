@@ -45,13 +45,26 @@ public interface WiringAdminConstants {
      */
     String PASSBYVALYE_INTENT = "passByValue";
 
+    /**
+     * One-way intent: invocations of <code>void</code> methods return as soon as the remote node has
+     * accepted them, without waiting for the service to be invoked. Exceptions thrown by these
+     * methods are not reported to the caller.
+     */
+    String ONEWAY_INTENT = "oneWay";
+
     /**
      * Intents supported by this implementation
      */
-    String[] SUPPORTED_INTENTS = new String[] { PASSBYVALYE_INTENT };
+    String[] SUPPORTED_INTENTS = new String[] { PASSBYVALYE_INTENT, ONEWAY_INTENT };
     
     /**
      * the id of the Inaetics wir
      */
     String WIRE_ID = CONFIGURATION_TYPE + ".wireId";
+
+    /**
+     * Endpoint property: comma separated names of the codecs accepted by the endpoint, in order of
+     * preference. Endpoints without this property only accept JSON.
+     */
+    String CODECS = CONFIGURATION_TYPE + ".codecs";
 }
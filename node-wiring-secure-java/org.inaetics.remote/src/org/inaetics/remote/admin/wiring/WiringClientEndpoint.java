@@ -4,7 +4,6 @@
 package org.inaetics.remote.admin.wiring;
 
 import static org.inaetics.remote.IOUtil.closeSilently;
-import static org.inaetics.remote.admin.wiring.WiringAdminUtil.getMethodSignature;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -13,18 +12,20 @@ import java.io.OutputStream;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
-import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.JavaType;
+import org.codehaus.jackson.map.ObjectReader;
 import org.inaetics.wiring.endpoint.WiringConstants;
 import org.inaetics.wiring.endpoint.WiringSender;
 import org.osgi.framework.BundleContext;
@@ -42,11 +43,13 @@ public final class WiringClientEndpoint implements InvocationHandler {
     private static final int FATAL_ERROR_COUNT = 5;
 
     private final ObjectMapper m_objectMapper = new ObjectMapper();
-    private final JsonFactory m_JsonFactory = new JsonFactory(m_objectMapper);
 
-    private final Map<Method, String> m_interfaceMethods;
+    private final Map<Method, MethodInvocationPlan> m_interfaceMethods;
+    private final ObjectReader m_exceptionReader = m_objectMapper.reader(ExceptionWrapper.class);
     private final EndpointDescription m_endpoint;
+    private final InvocationCodec m_codec;
     private final Object m_proxy;
+    private final boolean m_oneWay;
 
     private ClientEndpointProblemListener m_problemListener;
     private int m_remoteErrors;
@@ -57,15 +60,17 @@ public final class WiringClientEndpoint implements InvocationHandler {
         if (interfaceClasses.length == 0) {
             throw new IllegalArgumentException("Need at least one interface to expose!");
         }
-        m_interfaceMethods = new HashMap<Method, String>();
+        m_interfaceMethods = new HashMap<Method, MethodInvocationPlan>();
         m_endpoint = endpoint;
+        m_codec = new InvocationCodecs(m_objectMapper).negotiate(endpoint);
         m_proxy = Proxy.newProxyInstance(getClass().getClassLoader(), interfaceClasses, this);
+        m_oneWay = endpoint.getIntents().contains(WiringAdminConstants.ONEWAY_INTENT);
         m_remoteErrors = 0;
         m_sender = wiringSender;
         
         for (Class<?> interfaceClass : interfaceClasses) {
             for (Method method : interfaceClass.getMethods()) {
-                m_interfaceMethods.put(method, getMethodSignature(method));
+                m_interfaceMethods.put(method, new MethodInvocationPlan(method, m_objectMapper));
             }
         }
         
@@ -164,32 +169,51 @@ public final class WiringClientEndpoint implements InvocationHandler {
      */
     private Object invokeRemoteMethodSecure(Method method, Object[] arguments) throws Throwable {
 
-        OutputStream outputStream = null;
+        ByteArrayOutputStream outputStream = null;
         InputStream inputStream = null;
         Object result = null;
         ExceptionWrapper exception = null;
         try {
             outputStream = new ByteArrayOutputStream();
-            writeMethodInvocationJSON(outputStream, method, arguments);
-            String message = outputStream.toString();
-            
-            String response = m_sender.sendMessage(message);
-            
-            JsonNode tree = m_objectMapper.readTree(response);
-            if (tree != null) {
-                JsonNode exceptionNode = tree.get("e");
-                if (exceptionNode != null) {
-                    exception = m_objectMapper.readValue(exceptionNode, ExceptionWrapper.class);
+            writeMethodInvocation(outputStream, method, arguments);
+            ByteBuffer message = ByteBuffer.wrap(outputStream.toByteArray());
+
+            MethodInvocationPlan plan = m_interfaceMethods.get(method);
+            if (m_oneWay && plan.isVoid()) {
+                // only wait until the remote node accepted the invocation
+                try {
+                    m_sender.sendOneWayMessage(message).get();
+                }
+                catch (ExecutionException e) {
+                    throw e.getCause();
                 }
-                else {
-                    JsonNode responseNode = tree.get("r");
-                    if (responseNode != null) {
-                        JavaType returnType =
-                            m_objectMapper.getTypeFactory().constructType(method.getGenericReturnType());
-                        result = m_objectMapper.readValue(responseNode, returnType);
+                m_remoteErrors = 0;
+                return null;
+            }
+
+            // the result is decoded while it is received
+            inputStream = m_sender.sendMessageStreamed(message);
+            JsonParser parser = m_codec.createParser(inputStream);
+            try {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String fieldName = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("e".equals(fieldName)) {
+                            exception = m_exceptionReader.readValue(parser);
+                        }
+                        else if ("r".equals(fieldName) && !plan.isVoid()) {
+                            result = plan.getReturnReader().readValue(parser);
+                        }
+                        else {
+                            parser.skipChildren();
+                        }
                     }
                 }
             }
+            finally {
+                parser.close();
+            }
 
             // Reset this error counter upon each successful request...
             m_remoteErrors = 0;
@@ -210,22 +234,22 @@ public final class WiringClientEndpoint implements InvocationHandler {
     }
 
     /**
-     * Writes out the the invocation payload as a JSON object with with two fields. The m-field holds the method's signature
-     * and the a-field hold the arguments array.
+     * Writes out the the invocation payload as a JSON object with with two fields, encoded with the codec negotiated with
+     * the endpoint. The m-field holds the method's signature and the a-field hold the arguments array.
      * 
      * @param out the output stream to write to
      * @param method the method in question
      * @param arguments the arguments
      * @throws IOException if a write operation fails
      */
-    private void writeMethodInvocationJSON(OutputStream out, Method method, Object[] arguments) throws IOException {
-        JsonGenerator gen = m_JsonFactory.createJsonGenerator(out);
+    private void writeMethodInvocation(OutputStream out, Method method, Object[] arguments) throws IOException {
+        JsonGenerator gen = m_codec.createGenerator(out);
         gen.writeStartObject();
         gen.writeNumberField("service.id", m_endpoint.getServiceId());
 
         gen.writeObjectFieldStart("request");
         
-        gen.writeStringField("m", m_interfaceMethods.get(method));
+        gen.writeStringField("m", m_interfaceMethods.get(method).getSignature());
         gen.writeArrayFieldStart("a");
         if (arguments != null) {
             for (int i = 0; i < arguments.length; i++) {
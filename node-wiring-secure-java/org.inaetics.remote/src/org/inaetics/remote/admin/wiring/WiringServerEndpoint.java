@@ -4,15 +4,15 @@
 package org.inaetics.remote.admin.wiring;
 
 import static javax.servlet.http.HttpServletResponse.SC_OK;
-import static org.inaetics.remote.admin.wiring.WiringAdminUtil.getMethodSignature;
 import static org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent.EXPORT_ERROR;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -28,9 +28,9 @@ import org.apache.felix.dm.DependencyManager;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.node.ArrayNode;
-import org.codehaus.jackson.type.JavaType;
 import org.inaetics.wiring.endpoint.WiringReceiver;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -38,6 +38,7 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.service.remoteserviceadmin.ExportRegistration;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
+import org.osgi.util.tracker.ServiceTracker;
 
 /**
  * Servlet that represents a remoted local service.
@@ -52,10 +53,11 @@ public final class WiringServerEndpoint {
 
     private final ObjectMapper m_objectMapper = new ObjectMapper();
     private final JsonFactory m_jsonFactory = new JsonFactory(m_objectMapper);
+    private final InvocationCodecs m_codecs = new InvocationCodecs(m_objectMapper);
 
-    private final BundleContext m_bundleContext;
-    private final ServiceReference<?> m_serviceReference;
-    private final Map<String, Method> m_interfaceMethods;
+    private final Map<String, MethodInvocationPlan> m_interfaceMethods;
+    private final ServiceTracker<Object, Object> m_serviceTracker;
+    private volatile Object m_service;
 
     private ServerEndpointProblemListener m_problemListener;
     private int m_localErrors;
@@ -70,19 +72,46 @@ public final class WiringServerEndpoint {
     		final BundleContext context, final ServiceReference<?> reference,
     		final Map<String, String> properties, final Class<?>... interfaceClasses) {
 
-        m_bundleContext = context;
-        m_serviceReference = reference;
-        m_interfaceMethods = new HashMap<String, Method>();
+        m_interfaceMethods = new HashMap<String, MethodInvocationPlan>();
         m_dependencyManager = factory.getDependencyManager();
+        properties.put(WiringAdminConstants.CODECS, m_codecs.getCodecNames());
+
+        // hold on to the service for as long as it is exported, so invocations do not need the service registry
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> serviceReference = (ServiceReference<Object>) reference;
+        m_serviceTracker = new ServiceTracker<Object, Object>(context, serviceReference, null) {
+
+            @Override
+            public Object addingService(ServiceReference<Object> trackedReference) {
+                Object service = super.addingService(trackedReference);
+                m_service = service;
+                return service;
+            }
+
+            @Override
+            public void removedService(ServiceReference<Object> trackedReference, Object service) {
+                m_service = null;
+                super.removedService(trackedReference, service);
+            }
+        };
 
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
         for (Class<?> interfaceClass : interfaceClasses) {
             for (Method method : interfaceClass.getMethods()) {
                 // Although we're accessing a public (interface) method, the *service* implementation
                 // itself can be non-public. This check appears to be fixed in recent Java versions...
                 method.setAccessible(true);
-                m_interfaceMethods.put(getMethodSignature(method), method);
+                try {
+                    MethodInvocationPlan plan = new MethodInvocationPlan(method, m_objectMapper, lookup);
+                    m_interfaceMethods.put(plan.getSignature(), plan);
+                }
+                catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("Cannot bind remoted method " + method, e);
+                }
             }
         }
+        // only opened once all methods are bound, so a failure above does not leave it open
+        m_serviceTracker.open();
         
         final CountDownLatch doneSignal = new CountDownLatch(1);
         m_receiver = new WiringReceiver() {
@@ -112,23 +141,22 @@ public final class WiringServerEndpoint {
 			
 			@Override
 			public String messageReceived(String message) throws Exception {
-				
-	            JsonNode tree = m_objectMapper.readTree(message);
-	            if (tree == null) {
-	            	throw new Exception("error reading message");
-	            }
-
-	            JsonNode serviceIdNode = tree.get("service.id");
-	            if (serviceIdNode == null) {
-	            	throw new Exception("error reading service.id");
-	            }
-
-	            JsonNode requestNode = tree.get("request");
-	            if (requestNode == null) {
-	            	throw new Exception("error reading request");
-	            }
-				
-				return invokeService(requestNode.toString());
+				// textual messages can only be JSON encoded
+				JsonInvocationCodec codec = m_codecs.getJsonCodec();
+				ByteBuffer response = invokeService(codec, codec.createParser(message));
+				return response == null ? null : new String(response.array(), response.arrayOffset() + response.position(), response.remaining(), "UTF-8");
+			}
+
+			@Override
+			public ByteBuffer messageReceived(ByteBuffer message) throws Exception {
+				InvocationCodec codec = m_codecs.select(message);
+				return invokeService(codec, codec.createParser(message));
+			}
+
+			@Override
+			public void messageReceived(ByteBuffer message, OutputStream response) throws Exception {
+				InvocationCodec codec = m_codecs.select(message);
+				invokeService(codec, codec.createParser(message), response);
 			}
 		};
 		
@@ -148,6 +176,7 @@ public final class WiringServerEndpoint {
 		}
 		
 		if (!m_wireCreated) {
+			m_serviceTracker.close();
 			throw new RuntimeException("could not create wire");
 		}
     }
@@ -156,6 +185,7 @@ public final class WiringServerEndpoint {
     	if (m_dependencyManager != null && m_receiverComponent != null) {
     		m_dependencyManager.remove(m_receiverComponent);
     	}
+    	m_serviceTracker.close();
     }
 
     /**
@@ -165,98 +195,165 @@ public final class WiringServerEndpoint {
         m_problemListener = problemListener;
     }
 
-    private String invokeService(String message) throws IOException {
+    private ByteBuffer invokeService(InvocationCodec codec, JsonParser parser) throws Exception {
+        ResponseOutputStream output = new ResponseOutputStream();
+        return invokeService(codec, parser, output) ? output.toByteBuffer() : null;
+    }
 
-        boolean ungetService = false;
+    /**
+     * Decodes and invokes a remote method invocation in a single pass over the message, reading
+     * the arguments directly into the parameter types of the invoked method.
+     * 
+     * @param codec the codec the message was encoded with, and the response is encoded with;
+     * @param parser the parser positioned at the start of the message;
+     * @param out the output stream to write the encoded response to, it is not closed.
+     * @return <code>true</code> if a response was written, <code>false</code> if the request could
+     *         not be processed.
+     * @throws Exception in case the message is not a valid invocation message.
+     */
+    private boolean invokeService(InvocationCodec codec, JsonParser parser, OutputStream out) throws Exception {
         try {
-
-            JsonNode tree = m_objectMapper.readTree(message);
-            if (tree == null) {
-            	// TODO how to indicate an error?
-            	return null;
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new Exception("error reading message");
             }
 
-            JsonNode signatureNode = tree.get("m");
-            if (signatureNode == null) {
-            	// TODO how to indicate an error?
-            	return null;
+            boolean serviceIdFound = false;
+            boolean requestFound = false;
+            MethodInvocationPlan method = null;
+            Object[] parameters = null;
+            boolean validRequest = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if ("service.id".equals(fieldName)) {
+                    serviceIdFound = true;
+                    parser.skipChildren();
+                }
+                else if ("request".equals(fieldName) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    requestFound = true;
+                    JsonNode argumentsNode = null;
+                    boolean argumentsFound = false;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String requestFieldName = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("m".equals(requestFieldName)) {
+                            method = m_interfaceMethods.get(parser.getText());
+                        }
+                        else if ("a".equals(requestFieldName)) {
+                            argumentsFound = true;
+                            if (method != null) {
+                                parameters = readArguments(parser, method);
+                                if (parameters == null) {
+                                    // TODO how to indicate an error?
+                                    return false;
+                                }
+                            }
+                            else {
+                                // signature not known yet, keep the arguments until it is
+                                argumentsNode = parser.readValueAsTree();
+                            }
+                        }
+                        else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (method != null && argumentsNode != null) {
+                        parameters = readArguments(argumentsNode.traverse(), method);
+                    }
+                    validRequest = method != null && argumentsFound && parameters != null;
+                }
+                else {
+                    parser.skipChildren();
+                }
             }
 
-            JsonNode argumentsNode = tree.get("a");
-            if (argumentsNode == null) {
-            	// TODO how to indicate an error?
-            	return null;
+            if (!serviceIdFound) {
+                throw new Exception("error reading service.id");
             }
-
-            ArrayNode arguments = m_objectMapper.readValue(argumentsNode, ArrayNode.class);
-            if (arguments == null) {
-            	// TODO how to indicate an error?
-            	return null;
+            if (!requestFound) {
+                throw new Exception("error reading request");
             }
-
-            Method method = m_interfaceMethods.get(signatureNode.asText());
-            if (method == null) {
-            	// TODO how to indicate an error?
-            	return null;
-            }
-
-            Type[] types = method.getGenericParameterTypes();
-            if (arguments.size() != types.length) {
-            	// TODO how to indicate an error?
-            	return null;
+            if (!validRequest) {
+                // TODO how to indicate an error?
+                return false;
             }
+            return invokeService(codec, method, parameters, out);
+        }
+        finally {
+            parser.close();
+        }
+    }
 
-            Object[] parameters = new Object[types.length];
-            for (int i = 0; i < types.length; i++) {
-                try {
-                    JavaType argType =
-                        m_objectMapper.getTypeFactory().constructType(types[i]);
-                    parameters[i] = m_objectMapper.readValue(arguments.get(i), argType);
-                }
-                catch (Exception e) {
-                	// TODO how to indicate an error?
-                	return null;
-                }
-            }
+    /**
+     * Reads the arguments array of an invocation into the parameter types of the given method.
+     * 
+     * @param parser the parser positioned at the start of the arguments array;
+     * @param method the method to read the arguments for.
+     * @return the parameters, or <code>null</code> if the arguments do not match the method, in
+     *         which case the parser is left somewhere within the arguments.
+     */
+    private Object[] readArguments(JsonParser parser, MethodInvocationPlan method) throws IOException {
+        if (parser.getCurrentToken() == null) {
+            parser.nextToken();
+        }
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            return null;
+        }
 
-            Object service = m_bundleContext.getService(m_serviceReference);
-            if (service == null) {
-                handleLocalException(null);
-            	// TODO how to indicate an error?
-            	return null;
+        Object[] parameters = new Object[method.getParameterCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            if (parser.nextToken() == JsonToken.END_ARRAY) {
+                return null;
             }
-            ungetService = true;
-
-            Object result = null;
-            Exception exception = null;
             try {
-                result = method.invoke(service, parameters);
+                parameters[i] = method.getParameterReader(i).readValue(parser);
             }
             catch (Exception e) {
-                exception = e;
+                return null;
             }
+        }
+        if (parser.nextToken() != JsonToken.END_ARRAY) {
+            return null;
+        }
+        return parameters;
+    }
 
-            OutputStream output = new ByteArrayOutputStream();
-            JsonGenerator gen = m_jsonFactory.createJsonGenerator(output);
-            gen.writeStartObject();
-            if (exception != null) {
-                gen.writeObjectField("e", new ExceptionWrapper(unwrapException(exception)));
-            }
-            else if (!Void.TYPE.equals(method.getReturnType())) {
-                gen.writeObjectField("r", result);
-            }
-            gen.close();
+    private boolean invokeService(InvocationCodec codec, MethodInvocationPlan method, Object[] parameters,
+        OutputStream out) throws IOException {
 
-            // All is fine.. reset the local error count
-            m_localErrors = 0;
-            
-            return output.toString();
+        Object service = m_service;
+        if (service == null) {
+            handleLocalException(null);
+            // TODO how to indicate an error?
+            return false;
         }
-        finally {
-            if (ungetService) {
-                m_bundleContext.ungetService(m_serviceReference);
-            }
+
+        Object result = null;
+        Exception exception = null;
+        try {
+            result = method.invoke(service, parameters);
+        }
+        catch (Exception e) {
+            exception = e;
+        }
+
+        // the result is encoded straight to the response, without an intermediate copy
+        JsonGenerator gen = codec.createGenerator(out);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        gen.writeStartObject();
+        if (exception != null) {
+            gen.writeObjectField("e", new ExceptionWrapper(unwrapException(exception)));
+        }
+        else if (!method.isVoid()) {
+            gen.writeFieldName("r");
+            method.getReturnWriter().writeValue(gen, result);
         }
+        gen.close();
+
+        // All is fine.. reset the local error count
+        m_localErrors = 0;
+        
+        return true;
     }
 
     /**
@@ -289,6 +386,16 @@ public final class WiringServerEndpoint {
         return e;
     }
 
+    /**
+     * Output stream that hands out its buffer without copying it.
+     */
+    private static final class ResponseOutputStream extends ByteArrayOutputStream {
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
     /**
      * Writes all method signatures as a flat JSON array to the given HttpServletResponse
      * 
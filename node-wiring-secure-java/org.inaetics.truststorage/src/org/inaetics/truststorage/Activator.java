@@ -7,6 +7,7 @@ import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_KEYSTORE_FI
 import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_KEYSTORE_KEY_PASSWORD;
 import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_KEYSTORE_PASSWORD;
 import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_KEYSTORE_TYPE;
+import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_RELOAD_INTERVAL;
 import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_TRUSTSTORE_FILE_NAME;
 import static org.inaetics.truststorage.TrustStorageConstants.CONFIG_TRUSTSTORE_PASSWORD;
 
@@ -29,6 +30,7 @@ public class Activator extends DependencyActivatorBase implements TrustStorageCo
 	private volatile String m_keystore_key_password;
 	private volatile String m_truststore_file_name;
 	private volatile String m_truststore_password;
+	private volatile long m_reload_interval = 5000;
 
 	@Override
 	public void init(BundleContext context, DependencyManager dm) throws Exception {
@@ -43,6 +45,7 @@ public class Activator extends DependencyActivatorBase implements TrustStorageCo
 			m_keystore_key_password = getConfiguredKeyStoreKeyPassword(null);
 			m_truststore_file_name = getConfiguredTrustStoreFileName(null);
 			m_truststore_password = getConfiguredTrustStorePassword(null);
+			m_reload_interval = getConfiguredReloadInterval(null);
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
@@ -80,6 +83,15 @@ public class Activator extends DependencyActivatorBase implements TrustStorageCo
 		return getConfigStringValue(m_context, CONFIG_TRUSTSTORE_PASSWORD, properties, "changeit");
 	}
 
+	private long getConfiguredReloadInterval(Dictionary<String, ?> properties) throws ConfigurationException {
+		String value = getConfigStringValue(m_context, CONFIG_RELOAD_INTERVAL, properties, "5000");
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException(CONFIG_RELOAD_INTERVAL, "not a number: " + value, e);
+		}
+	}
+
 	@Override
 	public String getKeyStoreType() {
 		return m_keystore_type;
@@ -109,6 +121,11 @@ public class Activator extends DependencyActivatorBase implements TrustStorageCo
 	public String getTrustStorePassword() {
 		return m_truststore_password;
 	}
+
+	@Override
+	public long getReloadInterval() {
+		return m_reload_interval;
+	}
 	
 	private static String getConfigStringValue(BundleContext context, String key, Dictionary<String, ?> properties,
         String defaultValue) throws ConfigurationException {
@@ -133,6 +150,10 @@ public class Activator extends DependencyActivatorBase implements TrustStorageCo
 		Properties props = new Properties();
 		m_dependencymanager.add(createComponent()
 				.setInterface(TrustStorageService.class.getName(), props)
-				.setImplementation(serviceImpl));
+				.setImplementation(serviceImpl)
+				.add(createServiceDependency()
+						.setService(TrustStorageListener.class)
+						.setRequired(false)
+						.setCallbacks("listenerAdded", "listenerRemoved")));
 	}
 }
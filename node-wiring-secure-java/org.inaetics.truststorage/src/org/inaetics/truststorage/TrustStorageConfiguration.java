@@ -52,6 +52,13 @@ public interface TrustStorageConfiguration {
      * @return the truststore password.
      */
     public String getTrustStorePassword();
+
+    /**
+     * returns the interval at which the keystore and truststore files are checked for changes.
+     * 
+     * @return the reload interval in milliseconds.
+     */
+    public long getReloadInterval();
     
    
 }
@@ -45,4 +45,10 @@ public interface TrustStorageConstants {
      * Configuration property: truststore password
      */
     String CONFIG_TRUSTSTORE_PASSWORD = SERVICE_PID + ".truststore.password";
+
+    /**
+     * Configuration property: interval in milliseconds at which the keystore and truststore files
+     * are checked for changes
+     */
+    String CONFIG_RELOAD_INTERVAL = SERVICE_PID + ".reload.interval";
 }
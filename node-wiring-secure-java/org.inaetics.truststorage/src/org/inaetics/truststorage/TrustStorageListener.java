@@ -0,0 +1,19 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.truststorage;
+
+/**
+ * Whiteboard interface for services that want to be notified when the key material
+ * of the {@link TrustStorageService} changes, e.g. to rebuild TLS contexts.
+ */
+public interface TrustStorageListener {
+
+	/**
+	 * Called after the keystore or truststore has changed, either because one of the
+	 * store methods of the {@link TrustStorageService} was called, or because one of
+	 * the files was modified on disk.
+	 * @param version the new key material version
+	 */
+	public void keyMaterialChanged(long version);
+}
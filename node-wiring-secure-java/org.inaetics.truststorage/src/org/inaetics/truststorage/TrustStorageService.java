@@ -32,6 +32,14 @@ public interface TrustStorageService {
 	 * @return rootCaCert
 	 */
 	public X509Certificate getRootCaCert();
+	
+	/**
+	 * Get the version of the stored key material. The version changes every time
+	 * the keystore or truststore is modified, so callers can cache anything derived
+	 * from the key material for as long as the version stays the same.
+	 * @return the current key material version
+	 */
+	public long getKeyMaterialVersion();
 
 	
 	// setter
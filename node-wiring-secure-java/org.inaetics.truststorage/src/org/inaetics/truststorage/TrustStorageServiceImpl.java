@@ -1,12 +1,12 @@
 package org.inaetics.truststorage;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.cert.Certificate;
 import java.security.KeyStore;
 import java.security.KeyStore.PasswordProtection;
@@ -14,133 +14,278 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Trust storage backed by a keystore and truststore file.
+ * <p>
+ * The decoded keystore, truststore and root certificate are kept in memory. They are only
+ * reloaded after one of the store methods is called, or when one of the files changed on disk,
+ * which is checked at most once per configured reload interval. Registered
+ * {@link TrustStorageListener}s are notified after each reload.
+ * <p>
+ * The returned keystores are shared and must not be modified by callers.
+ */
 public class TrustStorageServiceImpl implements TrustStorageService {
 
 	private volatile TrustStorageConfiguration m_configuration;
-	
+
+	private final Object m_lock = new Object();
+	private final List<TrustStorageListener> m_listeners = new CopyOnWriteArrayList<TrustStorageListener>();
+	private volatile KeyMaterial m_keyMaterial;
+	private volatile long m_nextCheck;
+
 	public TrustStorageServiceImpl(TrustStorageConfiguration configuration) {
 		m_configuration = configuration;
 	};
-	
+
+	// listeners
+
+	void listenerAdded(ServiceReference<TrustStorageListener> reference, TrustStorageListener listener) {
+		m_listeners.add(listener);
+	}
+
+	void listenerRemoved(ServiceReference<TrustStorageListener> reference, TrustStorageListener listener) {
+		m_listeners.remove(listener);
+	}
+
 	// getters
-	
+
 	/**
-	 * Get the truststore from filesystem
+	 * Get the truststore, loading it from filesystem if it changed
 	 * @return the truststore
 	 */
 	public KeyStore getTrustStore() {
-		try {
-			return getKeyStoreFromFile(m_configuration.getTrustStoreFileName(), m_configuration.getTrustStorePassword());
-		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
-			e.printStackTrace();
-		}
-		return null;
+		return getKeyMaterial().m_trustStore;
 	};
-	
+
 	/**
-	 * Get the keystore from filesystem
+	 * Get the keystore, loading it from filesystem if it changed
 	 * @return the keystore
 	 */
 	public KeyStore getKeyStore() {
-		try {
-			return getKeyStoreFromFile(m_configuration.getKeyStoreFileName(), m_configuration.getKeyStorePassword());
-		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
-			e.printStackTrace();
-		}
-		return null;
+		return getKeyMaterial().m_keyStore;
 	};
-	
+
 	/**
 	 * Get the current root CA certificate from truststore
 	 * @return rootCaCert
 	 */
 	public X509Certificate getRootCaCert() {
-		try {
-			Certificate certFound = getTrustStore().getCertificate("rootcert");
-			
-			if(certFound != null) {
-				CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-				InputStream in = new ByteArrayInputStream(certFound.getEncoded());
-				return (X509Certificate)certFactory.generateCertificate(in);
-			}
-		} catch (KeyStoreException | CertificateException e) {
-			e.printStackTrace();
-		}
-		return null;
+		return getKeyMaterial().m_rootCaCert;
 	};
-	
-	
+
+	@Override
+	public char[] getKeyStoreKeyPassword() {
+		return m_configuration.getKeyStorePassword().toCharArray();
+	}
+
+	@Override
+	public long getKeyMaterialVersion() {
+		return getKeyMaterial().m_version;
+	}
+
 	// setters
-	
+
 	/**
 	 * Store the CA's certificate in the truststore
 	 * @param cert the CA's certificate
 	 */
-	public void storeRootCaCert(X509Certificate cert) {	
-		try {
-			KeyStore trustedStore = getTrustStore();
-			trustedStore.setCertificateEntry("rootcert", cert);
-			trustedStore.store(new FileOutputStream(m_configuration.getTrustStoreFileName()), m_configuration.getTrustStorePassword().toCharArray());
-		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
-			e.printStackTrace();
+	public void storeRootCaCert(X509Certificate cert) {
+		KeyMaterial updated = null;
+		synchronized (m_lock) {
+			try {
+				// modify a fresh copy, the cached truststore may be in use
+				KeyStore trustedStore = getKeyStoreFromFile(m_configuration.getTrustStoreFileName(), m_configuration.getTrustStorePassword());
+				trustedStore.setCertificateEntry("rootcert", cert);
+				storeKeyStoreToFile(trustedStore, m_configuration.getTrustStoreFileName(), m_configuration.getTrustStorePassword());
+				updated = reload();
+			} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+				e.printStackTrace();
+			}
 		}
+		notifyListeners(updated);
 	};
-	
+
 	/**
 	 * Store the node's private key and signed certificate.
 	 */
 	public void storeSignedKeyPair(X509Certificate cert, PrivateKey privateKey) {
+		KeyMaterial updated = null;
+		synchronized (m_lock) {
+			try {
+				// modify a fresh copy, the cached keystore may be in use
+				KeyStore keyStore = getKeyStoreFromFile(m_configuration.getKeyStoreFileName(), m_configuration.getKeyStorePassword());
+
+				KeyStore.PrivateKeyEntry keyStoreEntry = new KeyStore.PrivateKeyEntry(privateKey, new X509Certificate[]{cert});
+				PasswordProtection keyPassword = new PasswordProtection(m_configuration.getKeyStoreKeyPassword().toCharArray());
+
+				keyStore.setEntry("keypair", keyStoreEntry, keyPassword);
+				storeKeyStoreToFile(keyStore, m_configuration.getKeyStoreFileName(), m_configuration.getKeyStorePassword());
+				updated = reload();
+			} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
+				e.printStackTrace();
+			}
+		}
+		notifyListeners(updated);
+	};
+
+	/**
+	 * Returns the cached key material, reloading it first if the files changed on disk.
+	 */
+	private KeyMaterial getKeyMaterial() {
+		KeyMaterial current = m_keyMaterial;
+		if (current != null && System.currentTimeMillis() < m_nextCheck) {
+			return current;
+		}
+
+		KeyMaterial updated = null;
+		synchronized (m_lock) {
+			current = m_keyMaterial;
+			long now = System.currentTimeMillis();
+			if (current != null && now < m_nextCheck) {
+				return current;
+			}
+			m_nextCheck = now + m_configuration.getReloadInterval();
+
+			if (current != null && current.isUpToDate(m_configuration)) {
+				return current;
+			}
+			KeyMaterial previous = current;
+			current = reload();
+			if (previous != null && current != previous) {
+				// only changes after the initial load are notified
+				updated = current;
+			}
+		}
+		notifyListeners(updated);
+		return current;
+	}
+
+	/**
+	 * Loads the key material from filesystem and replaces the cached key material, must be
+	 * called while holding the lock.
+	 */
+	private KeyMaterial reload() {
+		KeyMaterial previous = m_keyMaterial;
+		long version = previous == null ? 0 : previous.m_version + 1;
+
+		File trustStoreFile = new File(m_configuration.getTrustStoreFileName());
+		File keyStoreFile = new File(m_configuration.getKeyStoreFileName());
+		KeyMaterial loaded;
 		try {
-			KeyStore keyStore = getKeyStore();
-			
-			KeyStore.PrivateKeyEntry keyStoreEntry = new KeyStore.PrivateKeyEntry(privateKey, new X509Certificate[]{cert});
-			PasswordProtection keyPassword = new PasswordProtection(m_configuration.getKeyStoreKeyPassword().toCharArray());
-			
-			keyStore.setEntry("keypair", keyStoreEntry, keyPassword);
-			keyStore.store(new FileOutputStream(m_configuration.getKeyStoreFileName()), m_configuration.getKeyStorePassword().toCharArray());
+			KeyStore trustStore = getKeyStoreFromFile(m_configuration.getTrustStoreFileName(), m_configuration.getTrustStorePassword());
+			KeyStore keyStore = getKeyStoreFromFile(m_configuration.getKeyStoreFileName(), m_configuration.getKeyStorePassword());
+
+			X509Certificate rootCaCert = null;
+			Certificate certFound = trustStore.getCertificate("rootcert");
+			if (certFound instanceof X509Certificate) {
+				rootCaCert = (X509Certificate) certFound;
+			}
+			loaded = new KeyMaterial(version, trustStore, keyStore, rootCaCert, trustStoreFile, keyStoreFile);
 		} catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
 			e.printStackTrace();
+			if (previous != null) {
+				// keep using the last valid key material, try again after the next interval
+				return previous;
+			}
+			loaded = new KeyMaterial(version, null, null, null, trustStoreFile, keyStoreFile);
 		}
-	};
-	
+		m_keyMaterial = loaded;
+		return loaded;
+	}
+
+	private void notifyListeners(KeyMaterial updated) {
+		if (updated == null) {
+			return;
+		}
+		for (TrustStorageListener listener : m_listeners) {
+			try {
+				listener.keyMaterialChanged(updated.m_version);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
-	 * Store the node's private key and signed certificate.
+	 * Load a keystore from filesystem, creating an empty one if it does not exist yet.
 	 */
 	private KeyStore getKeyStoreFromFile(String fileName, String password) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, FileNotFoundException, IOException {
 	    File file = new File(fileName);
-	 
-	    final KeyStore keyStore = KeyStore.getInstance(m_configuration.getKeyStoreType());    
-	    
+
+	    final KeyStore keyStore = KeyStore.getInstance(m_configuration.getKeyStoreType());
+
 	    if (file.exists()) {
-	    	System.out.println("no keystores available, creating");
-	        keyStore.load(new FileInputStream(file), password.toCharArray());    
+	    	try (InputStream in = new FileInputStream(file)) {
+	    		keyStore.load(in, password.toCharArray());
+	    	}
 	    } else {
+	    	System.out.println("no keystores available, creating");
 	    	// create parent folders
 	    	File parent = file.getParentFile();
 	    	if(!parent.exists() && !parent.mkdirs()){
 	    	    throw new IllegalStateException("Keystore Failure: Couldn't create dir: " + parent);
 	    	}
-	    	
+
 	        keyStore.load(null, null);
-	        keyStore.store(new FileOutputStream(fileName), password.toCharArray());    
+	        storeKeyStoreToFile(keyStore, fileName, password);
 	    }
-	 
+
 	    return keyStore;
 	}
 
-	@Override
-	public char[] getKeyStoreKeyPassword() {
-		return m_configuration.getKeyStorePassword().toCharArray();
+	private static void storeKeyStoreToFile(KeyStore keyStore, String fileName, String password) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+		try (OutputStream out = new FileOutputStream(fileName)) {
+			keyStore.store(out, password.toCharArray());
+		}
 	}
 
-//	@Override
-//	public void storeSignedKeyPair(X509Certificate cert, PrivateKey privateKey) {
-//		// TODO Auto-generated method stub
-//		
-//	}
-	
-	
+	/**
+	 * Immutable snapshot of the decoded key material and the state of the files it was loaded from.
+	 */
+	private static final class KeyMaterial {
+
+		private final long m_version;
+		private final KeyStore m_trustStore;
+		private final KeyStore m_keyStore;
+		private final X509Certificate m_rootCaCert;
+		private final String m_trustStoreFileName;
+		private final long m_trustStoreModified;
+		private final long m_trustStoreLength;
+		private final String m_keyStoreFileName;
+		private final long m_keyStoreModified;
+		private final long m_keyStoreLength;
+
+		KeyMaterial(long version, KeyStore trustStore, KeyStore keyStore, X509Certificate rootCaCert, File trustStoreFile, File keyStoreFile) {
+			m_version = version;
+			m_trustStore = trustStore;
+			m_keyStore = keyStore;
+			m_rootCaCert = rootCaCert;
+			m_trustStoreFileName = trustStoreFile.getPath();
+			m_trustStoreModified = trustStoreFile.lastModified();
+			m_trustStoreLength = trustStoreFile.length();
+			m_keyStoreFileName = keyStoreFile.getPath();
+			m_keyStoreModified = keyStoreFile.lastModified();
+			m_keyStoreLength = keyStoreFile.length();
+		}
+
+		boolean isUpToDate(TrustStorageConfiguration configuration) {
+			if (m_trustStore == null || m_keyStore == null) {
+				return false;
+			}
+			File trustStoreFile = new File(configuration.getTrustStoreFileName());
+			File keyStoreFile = new File(configuration.getKeyStoreFileName());
+			return m_trustStoreFileName.equals(trustStoreFile.getPath())
+					&& m_trustStoreModified == trustStoreFile.lastModified()
+					&& m_trustStoreLength == trustStoreFile.length()
+					&& m_keyStoreFileName.equals(keyStoreFile.getPath())
+					&& m_keyStoreModified == keyStoreFile.lastModified()
+					&& m_keyStoreLength == keyStoreFile.length();
+		}
+	}
 }
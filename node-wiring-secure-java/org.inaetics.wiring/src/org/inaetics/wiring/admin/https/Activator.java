@@ -3,6 +3,9 @@
  */
 package org.inaetics.wiring.admin.https;
 
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_BATCH_MAX_BYTES_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_BATCH_MAX_MESSAGES_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_BATCH_WINDOW_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONFIG_KEYSTORE_FILE_NAME;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONFIG_KEYSTORE_KEY_PASSWORD;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONFIG_KEYSTORE_PASSWORD;
@@ -10,13 +13,27 @@ import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONFIG_TRUSTST
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONFIG_TRUSTSTORE_PASSWORD;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONFIG_TRUSTSTORE_TYPE;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_CERT_ENFORCE_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_PIPELINING_DEPTH_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_POOL_IDLE_TIMEOUT_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CLIENT_POOL_MAX_PER_HOST_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.CONNECT_TIMEOUT_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.NODE_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.PATH_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.PROTOCOL_NAME;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.PROTOCOL_VERSION;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.READ_TIMEOUT_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_ACCEPTORS_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_ACCEPT_QUEUE_SIZE_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_CLIENT_BURST_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_CLIENT_RATE_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_CLIENT_WIRE_BURST_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_CLIENT_WIRE_RATE_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_IDLE_TIMEOUT_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_WIRE_QUEUE_SIZE_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVER_WIRE_THREADS_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.SERVICE_PID;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.TLS_SESSION_CACHE_SIZE_CONFIG_KEY;
+import static org.inaetics.wiring.admin.https.HttpsAdminConstants.TLS_SESSION_TIMEOUT_CONFIG_KEY;
 import static org.inaetics.wiring.admin.https.HttpsAdminConstants.ZONE_CONFIG_KEY;
 import static org.inaetics.wiring.base.ServiceUtil.getConfigIntValue;
 import static org.inaetics.wiring.base.ServiceUtil.getConfigStringValue;
@@ -32,6 +49,7 @@ import org.apache.felix.dm.DependencyManager;
 import org.apache.felix.http.api.ExtHttpService;
 import org.apache.felix.http.jetty.ConnectorFactory;
 import org.inaetics.certificateservice.api.CertificateService;
+import org.inaetics.truststorage.TrustStorageListener;
 import org.inaetics.truststorage.TrustStorageService;
 import org.inaetics.wiring.WiringAdmin;
 import org.osgi.framework.BundleContext;
@@ -58,6 +76,23 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
 	private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
     private static final int DEFAULT_READ_TIMEOUT = 60000;
     private static final int DEFAULT_SECURE_PORT = 8443;
+    private static final int DEFAULT_CLIENT_POOL_MAX_PER_HOST = 8;
+    private static final int DEFAULT_CLIENT_POOL_IDLE_TIMEOUT = 30000;
+    private static final int DEFAULT_CLIENT_PIPELINING_DEPTH = 0;
+    private static final int DEFAULT_CLIENT_BATCH_WINDOW = 0;
+    private static final int DEFAULT_CLIENT_BATCH_MAX_MESSAGES = 64;
+    private static final int DEFAULT_CLIENT_BATCH_MAX_BYTES = 65536;
+    private static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 1024;
+    private static final int DEFAULT_TLS_SESSION_TIMEOUT = 3600;
+    private static final int DEFAULT_SERVER_ACCEPTORS = 2;
+    private static final int DEFAULT_SERVER_ACCEPT_QUEUE_SIZE = 256;
+    private static final int DEFAULT_SERVER_IDLE_TIMEOUT = 60000;
+    private static final int DEFAULT_SERVER_WIRE_THREADS = 4;
+    private static final int DEFAULT_SERVER_WIRE_QUEUE_SIZE = 256;
+    private static final int DEFAULT_SERVER_CLIENT_RATE = 0;
+    private static final int DEFAULT_SERVER_CLIENT_BURST = 100;
+    private static final int DEFAULT_SERVER_CLIENT_WIRE_RATE = 0;
+    private static final int DEFAULT_SERVER_CLIENT_WIRE_BURST = 50;
 
     private volatile BundleContext m_context;
     private volatile DependencyManager m_dependencyManager;
@@ -71,6 +106,23 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
     private volatile int m_securePort;
     private volatile int m_connectTimeout;
     private volatile int m_readTimeout;
+    private volatile int m_clientPoolMaxPerHost;
+    private volatile int m_clientPoolIdleTimeout;
+    private volatile int m_clientPipeliningDepth;
+    private volatile int m_clientBatchWindow;
+    private volatile int m_clientBatchMaxMessages;
+    private volatile int m_clientBatchMaxBytes;
+    private volatile int m_tlsSessionCacheSize;
+    private volatile int m_tlsSessionTimeout;
+    private volatile int m_serverAcceptors;
+    private volatile int m_serverAcceptQueueSize;
+    private volatile int m_serverIdleTimeout;
+    private volatile int m_serverWireThreads;
+    private volatile int m_serverWireQueueSize;
+    private volatile int m_serverClientRate;
+    private volatile int m_serverClientBurst;
+    private volatile int m_serverClientWireRate;
+    private volatile int m_serverClientWireBurst;
     private volatile boolean m_clientCertValidation;
     private volatile String m_zone;
     private volatile String m_node;
@@ -86,6 +138,23 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
 
         int connectTimeout = getConfigIntValue(context, CONNECT_TIMEOUT_CONFIG_KEY, null, DEFAULT_CONNECT_TIMEOUT);
         int readTimeout = getConfigIntValue(context, READ_TIMEOUT_CONFIG_KEY, null, DEFAULT_READ_TIMEOUT);
+        int clientPoolMaxPerHost = getConfigIntValue(context, CLIENT_POOL_MAX_PER_HOST_CONFIG_KEY, null, DEFAULT_CLIENT_POOL_MAX_PER_HOST);
+        int clientPoolIdleTimeout = getConfigIntValue(context, CLIENT_POOL_IDLE_TIMEOUT_CONFIG_KEY, null, DEFAULT_CLIENT_POOL_IDLE_TIMEOUT);
+        int clientPipeliningDepth = getConfigIntValue(context, CLIENT_PIPELINING_DEPTH_CONFIG_KEY, null, DEFAULT_CLIENT_PIPELINING_DEPTH);
+        int clientBatchWindow = getConfigIntValue(context, CLIENT_BATCH_WINDOW_CONFIG_KEY, null, DEFAULT_CLIENT_BATCH_WINDOW);
+        int clientBatchMaxMessages = getConfigIntValue(context, CLIENT_BATCH_MAX_MESSAGES_CONFIG_KEY, null, DEFAULT_CLIENT_BATCH_MAX_MESSAGES);
+        int clientBatchMaxBytes = getConfigIntValue(context, CLIENT_BATCH_MAX_BYTES_CONFIG_KEY, null, DEFAULT_CLIENT_BATCH_MAX_BYTES);
+        int tlsSessionCacheSize = getConfigIntValue(context, TLS_SESSION_CACHE_SIZE_CONFIG_KEY, null, DEFAULT_TLS_SESSION_CACHE_SIZE);
+        int tlsSessionTimeout = getConfigIntValue(context, TLS_SESSION_TIMEOUT_CONFIG_KEY, null, DEFAULT_TLS_SESSION_TIMEOUT);
+        int serverAcceptors = getConfigIntValue(context, SERVER_ACCEPTORS_CONFIG_KEY, null, DEFAULT_SERVER_ACCEPTORS);
+        int serverAcceptQueueSize = getConfigIntValue(context, SERVER_ACCEPT_QUEUE_SIZE_CONFIG_KEY, null, DEFAULT_SERVER_ACCEPT_QUEUE_SIZE);
+        int serverIdleTimeout = getConfigIntValue(context, SERVER_IDLE_TIMEOUT_CONFIG_KEY, null, DEFAULT_SERVER_IDLE_TIMEOUT);
+        int serverWireThreads = getConfigIntValue(context, SERVER_WIRE_THREADS_CONFIG_KEY, null, DEFAULT_SERVER_WIRE_THREADS);
+        int serverWireQueueSize = getConfigIntValue(context, SERVER_WIRE_QUEUE_SIZE_CONFIG_KEY, null, DEFAULT_SERVER_WIRE_QUEUE_SIZE);
+        int serverClientRate = getConfigIntValue(context, SERVER_CLIENT_RATE_CONFIG_KEY, null, DEFAULT_SERVER_CLIENT_RATE);
+        int serverClientBurst = getConfigIntValue(context, SERVER_CLIENT_BURST_CONFIG_KEY, null, DEFAULT_SERVER_CLIENT_BURST);
+        int serverClientWireRate = getConfigIntValue(context, SERVER_CLIENT_WIRE_RATE_CONFIG_KEY, null, DEFAULT_SERVER_CLIENT_WIRE_RATE);
+        int serverClientWireBurst = getConfigIntValue(context, SERVER_CLIENT_WIRE_BURST_CONFIG_KEY, null, DEFAULT_SERVER_CLIENT_WIRE_BURST);
         String zone = getConfiguredZone(null);
         String node = getConfiguredNode(null);
         String truststoreFileName = getConfiguredTruststoreFileName(null);
@@ -98,6 +167,23 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
             m_baseUrl = parseConfiguredBaseUrl(null);
             m_connectTimeout = connectTimeout;
             m_readTimeout = readTimeout;
+            m_clientPoolMaxPerHost = clientPoolMaxPerHost;
+            m_clientPoolIdleTimeout = clientPoolIdleTimeout;
+            m_clientPipeliningDepth = clientPipeliningDepth;
+            m_clientBatchWindow = clientBatchWindow;
+            m_clientBatchMaxMessages = clientBatchMaxMessages;
+            m_clientBatchMaxBytes = clientBatchMaxBytes;
+            m_tlsSessionCacheSize = tlsSessionCacheSize;
+            m_tlsSessionTimeout = tlsSessionTimeout;
+            m_serverAcceptors = serverAcceptors;
+            m_serverAcceptQueueSize = serverAcceptQueueSize;
+            m_serverIdleTimeout = serverIdleTimeout;
+            m_serverWireThreads = serverWireThreads;
+            m_serverWireQueueSize = serverWireQueueSize;
+            m_serverClientRate = serverClientRate;
+            m_serverClientBurst = serverClientBurst;
+            m_serverClientWireRate = serverClientWireRate;
+            m_serverClientWireBurst = serverClientWireBurst;
             m_zone = zone;
             m_node = node;
             m_truststore_file_name = truststoreFileName;
@@ -144,6 +230,23 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
         // assign values to fields after baseUrl was successfully
         int connectTimeout = getConfigIntValue(m_context, CONNECT_TIMEOUT_CONFIG_KEY, properties, DEFAULT_CONNECT_TIMEOUT);
         int readTimeout = getConfigIntValue(m_context, READ_TIMEOUT_CONFIG_KEY, properties, DEFAULT_READ_TIMEOUT);
+        int clientPoolMaxPerHost = getConfigIntValue(m_context, CLIENT_POOL_MAX_PER_HOST_CONFIG_KEY, properties, DEFAULT_CLIENT_POOL_MAX_PER_HOST);
+        int clientPoolIdleTimeout = getConfigIntValue(m_context, CLIENT_POOL_IDLE_TIMEOUT_CONFIG_KEY, properties, DEFAULT_CLIENT_POOL_IDLE_TIMEOUT);
+        int clientPipeliningDepth = getConfigIntValue(m_context, CLIENT_PIPELINING_DEPTH_CONFIG_KEY, properties, DEFAULT_CLIENT_PIPELINING_DEPTH);
+        int clientBatchWindow = getConfigIntValue(m_context, CLIENT_BATCH_WINDOW_CONFIG_KEY, properties, DEFAULT_CLIENT_BATCH_WINDOW);
+        int clientBatchMaxMessages = getConfigIntValue(m_context, CLIENT_BATCH_MAX_MESSAGES_CONFIG_KEY, properties, DEFAULT_CLIENT_BATCH_MAX_MESSAGES);
+        int clientBatchMaxBytes = getConfigIntValue(m_context, CLIENT_BATCH_MAX_BYTES_CONFIG_KEY, properties, DEFAULT_CLIENT_BATCH_MAX_BYTES);
+        int tlsSessionCacheSize = getConfigIntValue(m_context, TLS_SESSION_CACHE_SIZE_CONFIG_KEY, properties, DEFAULT_TLS_SESSION_CACHE_SIZE);
+        int tlsSessionTimeout = getConfigIntValue(m_context, TLS_SESSION_TIMEOUT_CONFIG_KEY, properties, DEFAULT_TLS_SESSION_TIMEOUT);
+        int serverAcceptors = getConfigIntValue(m_context, SERVER_ACCEPTORS_CONFIG_KEY, properties, DEFAULT_SERVER_ACCEPTORS);
+        int serverAcceptQueueSize = getConfigIntValue(m_context, SERVER_ACCEPT_QUEUE_SIZE_CONFIG_KEY, properties, DEFAULT_SERVER_ACCEPT_QUEUE_SIZE);
+        int serverIdleTimeout = getConfigIntValue(m_context, SERVER_IDLE_TIMEOUT_CONFIG_KEY, properties, DEFAULT_SERVER_IDLE_TIMEOUT);
+        int serverWireThreads = getConfigIntValue(m_context, SERVER_WIRE_THREADS_CONFIG_KEY, properties, DEFAULT_SERVER_WIRE_THREADS);
+        int serverWireQueueSize = getConfigIntValue(m_context, SERVER_WIRE_QUEUE_SIZE_CONFIG_KEY, properties, DEFAULT_SERVER_WIRE_QUEUE_SIZE);
+        int serverClientRate = getConfigIntValue(m_context, SERVER_CLIENT_RATE_CONFIG_KEY, properties, DEFAULT_SERVER_CLIENT_RATE);
+        int serverClientBurst = getConfigIntValue(m_context, SERVER_CLIENT_BURST_CONFIG_KEY, properties, DEFAULT_SERVER_CLIENT_BURST);
+        int serverClientWireRate = getConfigIntValue(m_context, SERVER_CLIENT_WIRE_RATE_CONFIG_KEY, properties, DEFAULT_SERVER_CLIENT_WIRE_RATE);
+        int serverClientWireBurst = getConfigIntValue(m_context, SERVER_CLIENT_WIRE_BURST_CONFIG_KEY, properties, DEFAULT_SERVER_CLIENT_WIRE_BURST);
         String zone = getConfiguredZone(properties);
         String node = getConfiguredNode(properties);
         String truststoreFileName = getConfiguredTruststoreFileName(properties);
@@ -155,6 +258,23 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
         try {
             m_connectTimeout = connectTimeout;
             m_readTimeout = readTimeout;
+            m_clientPoolMaxPerHost = clientPoolMaxPerHost;
+            m_clientPoolIdleTimeout = clientPoolIdleTimeout;
+            m_clientPipeliningDepth = clientPipeliningDepth;
+            m_clientBatchWindow = clientBatchWindow;
+            m_clientBatchMaxMessages = clientBatchMaxMessages;
+            m_clientBatchMaxBytes = clientBatchMaxBytes;
+            m_tlsSessionCacheSize = tlsSessionCacheSize;
+            m_tlsSessionTimeout = tlsSessionTimeout;
+            m_serverAcceptors = serverAcceptors;
+            m_serverAcceptQueueSize = serverAcceptQueueSize;
+            m_serverIdleTimeout = serverIdleTimeout;
+            m_serverWireThreads = serverWireThreads;
+            m_serverWireQueueSize = serverWireQueueSize;
+            m_serverClientRate = serverClientRate;
+            m_serverClientBurst = serverClientBurst;
+            m_serverClientWireRate = serverClientWireRate;
+            m_serverClientWireBurst = serverClientWireBurst;
             m_zone = zone;
             m_node = node;
             m_truststore_file_name = truststoreFileName;
@@ -202,7 +322,8 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
     
     private void registerWiringConnectorFactory() {
     	Component component = createComponent()
-				.setInterface(ConnectorFactory.class.getName(), null).setImplementation(new WiringConnectorFactory(this))   	
+				.setInterface(new String[] { ConnectorFactory.class.getName(), TrustStorageListener.class.getName() }, null)
+				.setImplementation(new WiringConnectorFactory(this))   	
 				.add(createServiceDependency().setService(TrustStorageService.class).setRequired(true))
 				.add(createServiceDependency().setService(LogService.class).setRequired(false))
 				.add(createServiceDependency().setService(CertificateService.class).setRequired(true));
@@ -343,6 +464,91 @@ public final class Activator extends DependencyActivatorBase implements ManagedS
         return m_readTimeout;
     }
 
+    @Override
+    public int getClientPoolMaxConnectionsPerHost() {
+        return m_clientPoolMaxPerHost;
+    }
+
+    @Override
+    public int getClientPoolIdleTimeout() {
+        return m_clientPoolIdleTimeout;
+    }
+
+    @Override
+    public int getClientPipeliningDepth() {
+        return m_clientPipeliningDepth;
+    }
+
+    @Override
+    public int getClientBatchWindow() {
+        return m_clientBatchWindow;
+    }
+
+    @Override
+    public int getClientBatchMaxMessages() {
+        return m_clientBatchMaxMessages;
+    }
+
+    @Override
+    public int getClientBatchMaxBytes() {
+        return m_clientBatchMaxBytes;
+    }
+
+    @Override
+    public int getTlsSessionCacheSize() {
+        return m_tlsSessionCacheSize;
+    }
+
+    @Override
+    public int getTlsSessionTimeout() {
+        return m_tlsSessionTimeout;
+    }
+
+    @Override
+    public int getServerAcceptors() {
+        return m_serverAcceptors;
+    }
+
+    @Override
+    public int getServerAcceptQueueSize() {
+        return m_serverAcceptQueueSize;
+    }
+
+    @Override
+    public int getServerIdleTimeout() {
+        return m_serverIdleTimeout;
+    }
+
+    @Override
+    public int getServerWireThreads() {
+        return m_serverWireThreads;
+    }
+
+    @Override
+    public int getServerWireQueueSize() {
+        return m_serverWireQueueSize;
+    }
+
+    @Override
+    public int getServerClientRate() {
+        return m_serverClientRate;
+    }
+
+    @Override
+    public int getServerClientBurst() {
+        return m_serverClientBurst;
+    }
+
+    @Override
+    public int getServerClientWireRate() {
+        return m_serverClientWireRate;
+    }
+
+    @Override
+    public int getServerClientWireBurst() {
+        return m_serverClientWireBurst;
+    }
+
 	@Override
 	public String getZone() {
 		return m_zone;
@@ -58,6 +58,8 @@ public final class ExportedEndpointImpl implements ExportRegistration, ExportRef
  
     		m_endpointDescription.setProperty(HttpsWiringEndpointProperties.VERSION, HttpsAdminConstants.PROTOCOL_VERSION);
     		m_endpointDescription.setProperty(WiringConstants.PROPERTY_SECURE, HttpsAdminConstants.SECURE);
+    		m_endpointDescription.setProperty(HttpsWiringEndpointProperties.PIPELINING, Boolean.TRUE.toString());
+    		m_endpointDescription.setProperty(HttpsWiringEndpointProperties.BATCHING, Boolean.TRUE.toString());
     		
     		try {
     			m_endpointDescription.setProperty(HttpsWiringEndpointProperties.URL, new URL(m_configuration.getBaseUrl().toString() + m_endpointDescription.getId()).toString());
@@ -46,6 +46,125 @@ public interface HttpsAdminConfiguration {
      * @return read timeout in ms
      */
     public int getReadTimeout();
+
+    /**
+     * returns the maximum number of pooled connections per remote node for the client endpoint
+     * 
+     * @return maximum number of connections per remote node
+     */
+    public int getClientPoolMaxConnectionsPerHost();
+
+    /**
+     * returns the idle time after which a pooled connection of the client endpoint is closed
+     * 
+     * @return idle timeout in ms
+     */
+    public int getClientPoolIdleTimeout();
+
+    /**
+     * Returns the maximum number of requests in flight on the shared pipelined connection to a remote node.
+     * 
+     * @return the pipelining depth, 0 if pipelining is disabled
+     */
+    public int getClientPipeliningDepth();
+
+    /**
+     * Returns the time in ms a message waits for other messages to the same remote node to send them as one batch.
+     * 
+     * @return the batch window, 0 if batching is disabled
+     */
+    public int getClientBatchWindow();
+
+    /**
+     * Returns the maximum number of messages in a batch, a full batch is sent before its window has passed.
+     * 
+     * @return the maximum number of messages in a batch
+     */
+    public int getClientBatchMaxMessages();
+
+    /**
+     * Returns the maximum number of message bytes in a batch, a full batch is sent before its window has passed.
+     * 
+     * @return the maximum number of message bytes in a batch
+     */
+    public int getClientBatchMaxBytes();
+
+    /**
+     * returns the maximum number of cached TLS sessions of both the client and server endpoints
+     * 
+     * @return the session cache size, 0 means no limit
+     */
+    public int getTlsSessionCacheSize();
+
+    /**
+     * returns the time a cached TLS session of the client and server endpoints can be resumed
+     * 
+     * @return session timeout in seconds, 0 means no limit
+     */
+    public int getTlsSessionTimeout();
+
+    /**
+     * returns the number of acceptor threads of the secure server, each of which also runs a selector for its share of the connections
+     * 
+     * @return the number of acceptors
+     */
+    public int getServerAcceptors();
+
+    /**
+     * returns the size of the queue of connections that are not yet accepted by the secure server
+     * 
+     * @return the accept queue size, 0 means the operating system default
+     */
+    public int getServerAcceptQueueSize();
+
+    /**
+     * returns the idle time after which the secure server closes a connection, which should be longer than the client pool idle timeout of the peers
+     * 
+     * @return idle timeout in ms
+     */
+    public int getServerIdleTimeout();
+
+    /**
+     * Returns the number of threads per wire that process received messages.
+     * 
+     * @return the number of threads per wire, 0 if messages are processed on the server's connection threads
+     */
+    public int getServerWireThreads();
+
+    /**
+     * Returns the maximum number of received messages per wire that wait for a thread.
+     * 
+     * @return the queue size per wire, 0 if messages are only accepted when a thread is available
+     */
+    public int getServerWireQueueSize();
+
+    /**
+     * Returns the maximum number of messages per second the server accepts from one client.
+     * 
+     * @return the rate per client, 0 if it is not limited
+     */
+    public int getServerClientRate();
+
+    /**
+     * Returns the number of messages a client can send at once before its rate limit applies.
+     * 
+     * @return the burst per client
+     */
+    public int getServerClientBurst();
+
+    /**
+     * Returns the maximum number of messages per second the server accepts from one client on one wire.
+     * 
+     * @return the rate per client and wire, 0 if it is not limited
+     */
+    public int getServerClientWireRate();
+
+    /**
+     * Returns the number of messages a client can send at once on one wire before its rate limit applies.
+     * 
+     * @return the burst per client and wire
+     */
+    public int getServerClientWireBurst();
     
     /**
      * returns the zone id
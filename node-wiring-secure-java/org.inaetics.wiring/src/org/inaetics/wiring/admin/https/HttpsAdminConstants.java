@@ -46,6 +46,92 @@ public interface HttpsAdminConstants {
      */
     String READ_TIMEOUT_CONFIG_KEY = SERVICE_PID + ".readtimeout";
 
+    /**
+     * Configuration property: maximum number of pooled client connections per remote node
+     */
+    String CLIENT_POOL_MAX_PER_HOST_CONFIG_KEY = SERVICE_PID + ".client.pool.maxperhost";
+
+    /**
+     * Configuration property: idle time in ms after which a pooled client connection is closed
+     */
+    String CLIENT_POOL_IDLE_TIMEOUT_CONFIG_KEY = SERVICE_PID + ".client.pool.idletimeout";
+
+    /**
+     * Configuration property: maximum number of pipelined requests in flight on the shared client connection to a remote node, 0 disables pipelining.
+     * The remote node processes pipelined requests one after the other, so a slow request delays the ones behind it
+     */
+    String CLIENT_PIPELINING_DEPTH_CONFIG_KEY = SERVICE_PID + ".client.pipelining.depth";
+
+    /**
+     * Configuration property: time in ms a message waits for other messages to the same remote node to send them as one batch, 0 disables batching
+     */
+    String CLIENT_BATCH_WINDOW_CONFIG_KEY = SERVICE_PID + ".client.batch.window";
+
+    /**
+     * Configuration property: maximum number of messages in a batch
+     */
+    String CLIENT_BATCH_MAX_MESSAGES_CONFIG_KEY = SERVICE_PID + ".client.batch.maxmessages";
+
+    /**
+     * Configuration property: maximum number of message bytes in a batch
+     */
+    String CLIENT_BATCH_MAX_BYTES_CONFIG_KEY = SERVICE_PID + ".client.batch.maxbytes";
+
+    /**
+     * Configuration property: maximum number of cached TLS sessions, for both client and server side
+     */
+    String TLS_SESSION_CACHE_SIZE_CONFIG_KEY = SERVICE_PID + ".tls.session.cachesize";
+
+    /**
+     * Configuration property: time in seconds a cached TLS session can be resumed
+     */
+    String TLS_SESSION_TIMEOUT_CONFIG_KEY = SERVICE_PID + ".tls.session.timeout";
+
+    /**
+     * Configuration property: number of acceptor threads of the secure server, each also runs its own selector
+     */
+    String SERVER_ACCEPTORS_CONFIG_KEY = SERVICE_PID + ".server.acceptors";
+
+    /**
+     * Configuration property: size of the queue of not yet accepted connections of the secure server
+     */
+    String SERVER_ACCEPT_QUEUE_SIZE_CONFIG_KEY = SERVICE_PID + ".server.acceptqueuesize";
+
+    /**
+     * Configuration property: idle time in ms after which the secure server closes a connection
+     */
+    String SERVER_IDLE_TIMEOUT_CONFIG_KEY = SERVICE_PID + ".server.idletimeout";
+
+    /**
+     * Configuration property: number of threads per wire that process received messages, 0 processes them on the server's connection threads
+     */
+    String SERVER_WIRE_THREADS_CONFIG_KEY = SERVICE_PID + ".server.wire.threads";
+
+    /**
+     * Configuration property: maximum number of received messages per wire that wait for a thread, messages beyond it are rejected with status 503
+     */
+    String SERVER_WIRE_QUEUE_SIZE_CONFIG_KEY = SERVICE_PID + ".server.wire.queuesize";
+
+    /**
+     * Configuration property: maximum number of messages per second the server accepts from one client, 0 disables the limit
+     */
+    String SERVER_CLIENT_RATE_CONFIG_KEY = SERVICE_PID + ".server.ratelimit.client.rate";
+
+    /**
+     * Configuration property: number of messages a client can send at once before its rate limit applies
+     */
+    String SERVER_CLIENT_BURST_CONFIG_KEY = SERVICE_PID + ".server.ratelimit.client.burst";
+
+    /**
+     * Configuration property: maximum number of messages per second the server accepts from one client on one wire, 0 disables the limit
+     */
+    String SERVER_CLIENT_WIRE_RATE_CONFIG_KEY = SERVICE_PID + ".server.ratelimit.wire.rate";
+
+    /**
+     * Configuration property: number of messages a client can send at once on one wire before its rate limit applies
+     */
+    String SERVER_CLIENT_WIRE_BURST_CONFIG_KEY = SERVICE_PID + ".server.ratelimit.wire.burst";
+
     /**
      * Configuration property: zone
      */
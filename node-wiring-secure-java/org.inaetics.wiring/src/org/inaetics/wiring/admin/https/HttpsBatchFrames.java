@@ -0,0 +1,133 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Framing of batched wiring messages. A batch request holds messages for several endpoints of a node,
+ * and the batch response holds their replies in the same order.
+ * <p>
+ * Both start with the number of frames. A request frame holds the length and UTF-8 bytes of the
+ * endpoint id, followed by the length and bytes of the message. A response frame holds the HTTP
+ * status of the message, followed by the length and bytes of the reply, or -1 if there is none.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+final class HttpsBatchFrames {
+
+    private HttpsBatchFrames() {
+    }
+
+    /**
+     * @param endpointIds the ids of the endpoints the messages are sent to;
+     * @param messages the messages, from their position to their limit.
+     * @return the batch request.
+     */
+    static ByteBuffer encodeRequests(List<String> endpointIds, List<ByteBuffer> messages) {
+        byte[][] ids = new byte[endpointIds.size()][];
+        int size = 4;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = endpointIds.get(i).getBytes(StandardCharsets.UTF_8);
+            size += 8 + ids[i].length + messages.get(i).remaining();
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.putInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            body.putInt(ids[i].length).put(ids[i]);
+            ByteBuffer message = messages.get(i);
+            body.putInt(message.remaining()).put(message.duplicate());
+        }
+        body.flip();
+        return body;
+    }
+
+    /**
+     * @param body the batch request, from its position to its limit;
+     * @param endpointIds the list to add the ids of the endpoints to;
+     * @param messages the list to add the messages to, they share their content with the body.
+     * @throws IOException in case the batch request is invalid.
+     */
+    static void decodeRequests(ByteBuffer body, List<String> endpointIds, List<ByteBuffer> messages) throws IOException {
+        try {
+            int count = body.getInt();
+            for (int i = 0; i < count; i++) {
+                ByteBuffer id = slice(body, body.getInt());
+                endpointIds.add(StandardCharsets.UTF_8.decode(id).toString());
+                messages.add(slice(body, body.getInt()));
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid batch request", e);
+        }
+        if (body.hasRemaining()) {
+            throw new IOException("Invalid batch request: trailing bytes");
+        }
+    }
+
+    /**
+     * @param statuses the HTTP status per message;
+     * @param replies the reply per message, <code>null</code> if there is none.
+     * @return the batch response.
+     */
+    static ByteBuffer encodeReplies(int[] statuses, ByteBuffer[] replies) {
+        int size = 4;
+        for (ByteBuffer reply : replies) {
+            size += 8 + (reply == null ? 0 : reply.remaining());
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.putInt(statuses.length);
+        for (int i = 0; i < statuses.length; i++) {
+            body.putInt(statuses[i]);
+            if (replies[i] == null) {
+                body.putInt(-1);
+            }
+            else {
+                body.putInt(replies[i].remaining()).put(replies[i].duplicate());
+            }
+        }
+        body.flip();
+        return body;
+    }
+
+    /**
+     * @param body the batch response, from its position to its limit;
+     * @param statuses the array to store the HTTP status per message in;
+     * @param replies the array to store the reply per message in, <code>null</code> if there is none.
+     * @throws IOException in case the batch response is invalid, or does not hold a reply per message.
+     */
+    static void decodeReplies(ByteBuffer body, int[] statuses, ByteBuffer[] replies) throws IOException {
+        try {
+            int count = body.getInt();
+            if (count != statuses.length) {
+                throw new IOException("Invalid batch response: " + count + " replies for " + statuses.length + " messages");
+            }
+            for (int i = 0; i < count; i++) {
+                statuses[i] = body.getInt();
+                int length = body.getInt();
+                replies[i] = length == -1 ? null : slice(body, length);
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid batch response", e);
+        }
+        if (body.hasRemaining()) {
+            throw new IOException("Invalid batch response: trailing bytes");
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer body, int length) {
+        if (length < 0 || length > body.remaining()) {
+            throw new IllegalArgumentException("Invalid frame length: " + length);
+        }
+        ByteBuffer slice = body.slice();
+        slice.limit(length);
+        body.position(body.position() + length);
+        return slice;
+    }
+}
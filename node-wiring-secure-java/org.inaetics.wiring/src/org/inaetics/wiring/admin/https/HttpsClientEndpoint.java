@@ -3,28 +3,25 @@
  */
 package org.inaetics.wiring.admin.https;
 
-import static java.net.HttpURLConnection.HTTP_OK;
-import static org.inaetics.wiring.base.IOUtil.closeSilently;
-
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.KeyStore;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
 
-import org.inaetics.truststorage.TrustStorageService;
 import org.inaetics.wiring.WiringEndpointDescription;
-import org.inaetics.wiring.base.IOUtil;
 import org.osgi.framework.ServiceException;
 
 /**
@@ -37,19 +34,53 @@ import org.osgi.framework.ServiceException;
 public final class HttpsClientEndpoint {
 
     private static final int FATAL_ERROR_COUNT = 5;
-    private volatile TrustStorageService m_trustService;
+    /**
+     * Query of the url of an endpoint that marks a message as one-way.
+     */
+    static final String ONEWAY_QUERY = "oneway";
+
+    private static final String HOSTNAME_VERIFICATION_PATTERN = "\\A(CN=){1}(%s){1}(,){1}(.)*\\Z";
+
+    /**
+     * Verifies that the common name of the peer matches the host name that was connected to.
+     */
+    static final HostnameVerifier HOSTNAME_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            try {
+                Pattern verifyPattern = Pattern.compile(String.format(HOSTNAME_VERIFICATION_PATTERN, hostname));
+                String peerPrincipal = session.getPeerPrincipal().getName();
+                Matcher matcher = verifyPattern.matcher(peerPrincipal);
+                return matcher.matches();
+            }
+            catch (Exception e) {
+                return false;
+            }
+        }
+    };
+
+    private final HttpsClientEndpointFactory m_factory;
 
     private final WiringEndpointDescription m_endpoint;
     private final HttpsAdminConfiguration m_configuration;
+    private final boolean m_pipelined;
 
-    private ClientEndpointProblemListener m_problemListener;
-    private int m_remoteErrors;
+    private volatile ClientEndpointProblemListener m_problemListener;
+    private final AtomicInteger m_remoteErrors = new AtomicInteger();
 
-    public HttpsClientEndpoint(WiringEndpointDescription endpoint, HttpsAdminConfiguration configuration , TrustStorageService trustService) {
+    /**
+     * @param endpoint the description of the remote endpoint;
+     * @param configuration the configuration;
+     * @param factory the factory that provides the connection pool and batcher to send messages with,
+     *        which are replaced each time the factory is started.
+     */
+    public HttpsClientEndpoint(WiringEndpointDescription endpoint, HttpsAdminConfiguration configuration,
+        HttpsClientEndpointFactory factory) {
         m_endpoint = endpoint;
         m_configuration = configuration;
-        m_remoteErrors = 0;
-        m_trustService = trustService;
+        m_factory = factory;
+        // endpoints of older nodes do not announce pipelining, and get a connection per request
+        m_pipelined = Boolean.parseBoolean(endpoint.getProperty(HttpsWiringEndpointProperties.PIPELINING));
     }
 
     /**
@@ -67,7 +98,7 @@ public final class HttpsClientEndpoint {
      */
     private void handleRemoteException(IOException e) {
         if (m_problemListener != null) {
-            if (++m_remoteErrors > FATAL_ERROR_COUNT) {
+            if (m_remoteErrors.incrementAndGet() > FATAL_ERROR_COUNT) {
                 m_problemListener.handleEndpointError(e);
             }
             else {
@@ -78,100 +109,151 @@ public final class HttpsClientEndpoint {
 
 
     /**
-     * Does the actual invocation of the remote method.
-     * <p>
-     * This method assumes that all security checks (if needed) are processed!
-     * </p>
+     * Sends a message to the remote endpoint and waits for its response.
      * 
-     * @param method the actual method to invoke;
-     * @param arguments the arguments of the method to invoke;
-     * @return the result of the method invocation, can be <code>null</code>.
-     * @throws Exception in case the invocation failed in some way.
+     * @param message the message to send, from its position to its limit.
+     * @return the response of the remote endpoint.
+     * @throws Exception in case sending failed in some way.
      */
-    String sendMessage(String message) throws Exception {
+    ByteBuffer sendMessage(ByteBuffer message) throws Exception {
+        return await(sendMessageAsync(message));
+    }
 
-        HttpsURLConnection connection = null;
-        OutputStream outputStream = null;
-        InputStream inputStream = null;
-        String result = null;
+    /**
+     * Sends a message to the remote endpoint and waits until its response starts to arrive. Messages
+     * that are sent in batches are received as a whole, as a batch response holds the responses to
+     * several messages.
+     * 
+     * @param message the message to send, from its position to its limit.
+     * @return the response of the remote endpoint, which should be closed.
+     * @throws Exception in case sending failed in some way.
+     */
+    InputStream sendMessageStreamed(ByteBuffer message) throws Exception {
+        if (m_factory.getBatcher(m_endpoint) != null) {
+            ByteBuffer response = sendMessage(message);
+            return new ByteArrayInputStream(response.array(), response.arrayOffset() + response.position(),
+                response.remaining());
+        }
+        URL url;
         try {
-        	
-        	URL url = new URL(m_endpoint.getProperty(HttpsWiringEndpointProperties.URL));
-            connection = (HttpsURLConnection) url.openConnection();
-           
-            // trust
-            KeyStore trustStore = m_trustService.getTrustStore();
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-    		tmf.init(trustStore);
-    		
-    		// keys
-    		KeyStore keyStore = m_trustService.getKeyStore();
-    		final char[] keyStoreKeyPassword = m_trustService.getKeyStoreKeyPassword();
-    		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-    		kmf.init(keyStore, keyStoreKeyPassword);
-    		
-            HostnameVerifier hostnameVerifier = new HostnameVerifier() {
-            	private static final String HOSTNAME_VERIFICATION_PATTERN = "\\A(CN=){1}(%s){1}(,){1}(.)*\\Z";
-            	
-				@Override
-				public boolean verify(String hostname, SSLSession session) {
-					try {
-						Pattern verifyPattern = Pattern.compile(String.format(HOSTNAME_VERIFICATION_PATTERN, hostname));						
-						String peerPrincipal = session.getPeerPrincipal().getName();
-						Matcher matcher = verifyPattern.matcher(peerPrincipal);
-						return matcher.matches();
-					} catch (Exception e) {
-						return false;
-					}
-				}
-            };
-    		
-    		SSLContext ctx = SSLContext.getInstance("TLS");
-    		ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-    		
-    		SSLSocketFactory sslFactory = ctx.getSocketFactory();
-            connection.setSSLSocketFactory(sslFactory);
-            connection.setHostnameVerifier(hostnameVerifier);
-            connection.setRequestMethod("POST");
-            connection.setUseCaches(false);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(m_configuration.getConnectTimeout());
-            connection.setReadTimeout(m_configuration.getReadTimeout());
-            connection.setRequestProperty("Content-Type", "text/plain;charset=utf-8");
-            connection.connect();
-            System.out.println(connection.getCipherSuite());
-            outputStream = connection.getOutputStream();
-            
-            System.out.println(message.getBytes("UTF-8"));
-            
-            outputStream.write(message.getBytes("UTF-8"));
-            outputStream.flush();
-
-            int rc = connection.getResponseCode();
-            switch (rc) {
-                case HTTP_OK:
-                    inputStream = connection.getInputStream();
-                    result = IOUtil.convertStreamToString(inputStream, "UTF-8");
-                    break;
-                default:
-                    throw new IOException("Unexpected HTTP response: " + rc + " " + connection.getResponseMessage());
-            }
-            // Reset this error counter upon each successful request...
-            m_remoteErrors = 0;
+            url = getUrl(false);
         }
-        catch (IOException e) {
-            handleRemoteException(e);
+        catch (MalformedURLException e) {
             throw new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE, e);
         }
-        finally {
-            closeSilently(inputStream);
-            closeSilently(outputStream);
-            if (connection != null) {
-                connection.disconnect();
+        HttpsConnectionPool connectionPool = m_factory.getConnectionPool();
+        if (connectionPool == null) {
+            return await(handleFailures(HttpsClientEndpoint.<InputStream> closed()));
+        }
+        return await(handleFailures(connectionPool.sendStreamed(url, message, m_pipelined)));
+    }
+
+    /**
+     * Sends a message to the remote endpoint without waiting for its response.
+     * 
+     * @param message the message to send, from its position to its limit.
+     * @return a future that completes with the response of the remote endpoint, or with a
+     *         {@link ServiceException} in case sending failed in some way.
+     */
+    CompletableFuture<ByteBuffer> sendMessageAsync(ByteBuffer message) {
+        return send(message, false);
+    }
+
+    /**
+     * Sends a message to the remote endpoint, which acknowledges it before processing it. Remote
+     * endpoints of older nodes ignore the one-way marker, and acknowledge once they processed the
+     * message.
+     * 
+     * @param message the message to send, from its position to its limit.
+     * @return a future that completes once the remote endpoint acknowledged the message, or with a
+     *         {@link ServiceException} in case sending failed in some way.
+     */
+    CompletableFuture<Void> sendOneWayMessage(ByteBuffer message) {
+        return send(message, true).thenApply(new Function<ByteBuffer, Void>() {
+            @Override
+            public Void apply(ByteBuffer response) {
+                return null;
             }
+        });
+    }
+
+    private CompletableFuture<ByteBuffer> send(ByteBuffer message, boolean oneWay) {
+        URL url;
+        try {
+            url = getUrl(oneWay);
+        }
+        catch (MalformedURLException e) {
+            CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+            result.completeExceptionally(new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE, e));
+            return result;
+        }
+
+        // one-way messages are acknowledged right away, so they gain little from batching
+        HttpsMessageBatcher batcher = oneWay ? null : m_factory.getBatcher(m_endpoint);
+        HttpsConnectionPool connectionPool = m_factory.getConnectionPool();
+        CompletableFuture<ByteBuffer> sent;
+        if (connectionPool == null) {
+            sent = closed();
+        }
+        else if (batcher != null) {
+            sent = batcher.send(m_endpoint.getId(), url, message);
         }
+        else {
+            sent = connectionPool.send(url, message, m_pipelined);
+        }
+        return handleFailures(sent);
+    }
 
+    /**
+     * @return a future that fails as the factory is stopped and has no connection pool.
+     */
+    private static <T> CompletableFuture<T> closed() {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        result.completeExceptionally(new IOException("Connection pool is closed"));
         return result;
     }
 
+    private URL getUrl(boolean oneWay) throws MalformedURLException {
+        String url = m_endpoint.getProperty(HttpsWiringEndpointProperties.URL);
+        return new URL(oneWay ? url + "?" + ONEWAY_QUERY : url);
+    }
+
+    /**
+     * Counts the failures of sent messages, and reports them as {@link ServiceException}.
+     */
+    private <T> CompletableFuture<T> handleFailures(CompletableFuture<T> sent) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        sent.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T response, Throwable failure) {
+                if (failure == null) {
+                    // Reset this error counter upon each successful request...
+                    m_remoteErrors.set(0);
+                    result.complete(response);
+                }
+                else {
+                    Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                    // the connection pool and batcher report failures as I/O exceptions, except for unexpected errors
+                    IOException e = cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+                    handleRemoteException(e);
+                    result.completeExceptionally(new ServiceException("Remote service invocation failed: " + e.getMessage(), ServiceException.REMOTE, e));
+                }
+            }
+        });
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
 }
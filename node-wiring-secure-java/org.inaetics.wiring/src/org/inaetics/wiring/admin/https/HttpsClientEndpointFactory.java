@@ -3,8 +3,18 @@
  */
 package org.inaetics.wiring.admin.https;
 
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.inaetics.truststorage.TrustStorageService;
 import org.inaetics.wiring.WiringEndpointDescription;
@@ -20,15 +30,23 @@ public class HttpsClientEndpointFactory extends AbstractComponentDelegate implem
 
 	private Map<String, HttpsClientEndpoint> m_clients =
 			new ConcurrentHashMap<String, HttpsClientEndpoint>();
+	// the number of imports and discovered endpoints using each client, guarded by itself
+	private final Map<String, Integer> m_clientReferences = new HashMap<String, Integer>();
 	
     private ClientEndpointProblemListener m_problemListener;
     private HttpsAdminConfiguration m_configuration;
     private volatile TrustStorageService trustService;
+    private final HttpsClientSslContext m_sslContext;
+    private volatile HttpsConnectionPool m_connectionPool;
+    private volatile ScheduledExecutorService m_batchScheduler;
+    private final Map<String, HttpsMessageBatcher> m_batchers =
+    		new ConcurrentHashMap<String, HttpsMessageBatcher>();
     
     public void setTrustStorageService(TrustStorageService trustStorage)
 
     {
     	this.trustService = trustStorage;
+    	m_sslContext.setTrustStorageService(trustStorage);
     }
     /**
      * Creates a new {@link HttpsClientEndpointFactory} instance.
@@ -37,30 +55,162 @@ public class HttpsClientEndpointFactory extends AbstractComponentDelegate implem
     	super(factory);
         m_configuration = configuration;
         trustService = factory.getTrustStorageService();
+        // the pool keeps using this context, which picks up a trust storage that is set later on
+        m_sslContext = new HttpsClientSslContext(m_configuration.getTlsSessionCacheSize(),
+        	m_configuration.getTlsSessionTimeout());
+        m_sslContext.setTrustStorageService(trustService);
+    }
+
+    @Override
+    protected void startComponentDelegate() throws Exception {
+    	m_connectionPool = new HttpsConnectionPool(m_sslContext, m_configuration);
+    	if (m_configuration.getClientBatchWindow() > 0) {
+    		m_batchScheduler = Executors.newSingleThreadScheduledExecutor(
+    			new DefaultThreadFactory("inaetics-wiring-https-batch", true));
+    	}
     }
 
+    @Override
+    protected void stopComponentDelegate() throws Exception {
+    	HttpsConnectionPool connectionPool = m_connectionPool;
+    	m_connectionPool = null;
+    	ScheduledExecutorService batchScheduler = m_batchScheduler;
+    	m_batchScheduler = null;
+    	m_batchers.clear();
+    	if (batchScheduler != null) {
+    		// pending batches are sent on shutdown, and fail as the connection pool is closed
+    		batchScheduler.shutdown();
+    	}
+    	if (connectionPool != null) {
+    		logDebug("closing client connection pool: %s", connectionPool.getStatistics());
+    		connectionPool.close();
+    	}
+    }
+
+    /**
+     * Adds a reference to the client of a remote endpoint, and creates the client if there is none yet.
+     * Each call should be matched by a call to {@link #removeEndpoint(WiringEndpointDescription)}.
+     */
     public WiringSenderImpl addEndpoint(WiringEndpointDescription endpoint) {
-    	HttpsClientEndpoint client = m_clients.get(endpoint);
-    	if (client == null) {
-    		client = new HttpsClientEndpoint(endpoint, m_configuration,trustService);
-    		m_clients.put(endpoint.getId(), client);
-    		client.setProblemListener(this);
+    	synchronized (m_clientReferences) {
+    		Integer references = m_clientReferences.get(endpoint.getId());
+    		if (references == null) {
+    			HttpsClientEndpoint client = new HttpsClientEndpoint(endpoint, m_configuration, this);
+    			client.setProblemListener(this);
+    			m_clients.put(endpoint.getId(), client);
+    			references = 0;
+    		}
+    		m_clientReferences.put(endpoint.getId(), references + 1);
     	}
 		return new WiringSenderImpl(this, m_configuration, endpoint);
     }
     
+    /**
+     * Removes a reference to the client of a remote endpoint, and removes the client once it is no longer used.
+     */
     public void removeEndpoint(WiringEndpointDescription endpoint) {
-    	m_clients.remove(endpoint);
+    	synchronized (m_clientReferences) {
+    		Integer references = m_clientReferences.get(endpoint.getId());
+    		if (references == null) {
+    			return;
+    		}
+    		if (references > 1) {
+    			m_clientReferences.put(endpoint.getId(), references - 1);
+    		}
+    		else {
+    			m_clientReferences.remove(endpoint.getId());
+    			HttpsClientEndpoint client = m_clients.remove(endpoint.getId());
+    			client.setProblemListener(null);
+    		}
+    	}
+    }
+
+    /**
+     * @return the connection pool to send messages with, or <code>null</code> if not started.
+     */
+    HttpsConnectionPool getConnectionPool() {
+    	return m_connectionPool;
+    }
+
+    /**
+     * Returns the batcher of the node of a remote endpoint, which is shared by all endpoints of that node.
+     * 
+     * @return the batcher, or <code>null</code> if batching is disabled, not supported by the remote node,
+     *         or not started.
+     */
+    HttpsMessageBatcher getBatcher(WiringEndpointDescription endpoint) {
+    	ScheduledExecutorService batchScheduler = m_batchScheduler;
+    	HttpsConnectionPool connectionPool = m_connectionPool;
+    	String url = endpoint.getProperty(HttpsWiringEndpointProperties.URL);
+    	if (batchScheduler == null || connectionPool == null || url == null || !url.endsWith(endpoint.getId())
+    			|| !Boolean.parseBoolean(endpoint.getProperty(HttpsWiringEndpointProperties.BATCHING))) {
+    		return null;
+    	}
+    	// endpoint urls consist of the base url of the node followed by the endpoint id
+    	String batchUrl = url.substring(0, url.length() - endpoint.getId().length());
+    	HttpsMessageBatcher batcher = m_batchers.get(batchUrl);
+    	if (batcher == null) {
+    		try {
+    			boolean pipelined = Boolean.parseBoolean(endpoint.getProperty(HttpsWiringEndpointProperties.PIPELINING));
+    			batcher = new HttpsMessageBatcher(new URL(batchUrl), pipelined, connectionPool, batchScheduler,
+    				m_configuration);
+    		}
+    		catch (MalformedURLException e) {
+    			logWarning("invalid batch url %s", e, batchUrl);
+    			return null;
+    		}
+    		HttpsMessageBatcher existing = m_batchers.putIfAbsent(batchUrl, batcher);
+    		if (existing != null) {
+    			batcher = existing;
+    		}
+    	}
+    	return batcher;
     }
 
-    public String sendMessage(String wireId, String message) throws Exception {
+    public ByteBuffer sendMessage(String wireId, ByteBuffer message) throws Exception {
 		HttpsClientEndpoint httpClientEndpoint = m_clients.get(wireId);
 		if (httpClientEndpoint == null) {
 	    	throw new Exception("remote endpoint not found");
 		}			
 		return httpClientEndpoint.sendMessage(message);
     }
+
+    public CompletableFuture<ByteBuffer> sendMessageAsync(String wireId, ByteBuffer message) {
+		HttpsClientEndpoint httpClientEndpoint = m_clients.get(wireId);
+		if (httpClientEndpoint == null) {
+			CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+			result.completeExceptionally(new Exception("remote endpoint not found"));
+			return result;
+		}
+		return httpClientEndpoint.sendMessageAsync(message);
+    }
+
+    public InputStream sendMessageStreamed(String wireId, ByteBuffer message) throws Exception {
+		HttpsClientEndpoint httpClientEndpoint = m_clients.get(wireId);
+		if (httpClientEndpoint == null) {
+	    	throw new Exception("remote endpoint not found");
+		}
+		return httpClientEndpoint.sendMessageStreamed(message);
+    }
+
+    public CompletableFuture<Void> sendOneWayMessage(String wireId, ByteBuffer message) {
+		HttpsClientEndpoint httpClientEndpoint = m_clients.get(wireId);
+		if (httpClientEndpoint == null) {
+			CompletableFuture<Void> result = new CompletableFuture<Void>();
+			result.completeExceptionally(new Exception("remote endpoint not found"));
+			return result;
+		}
+		return httpClientEndpoint.sendOneWayMessage(message);
+    }
     
+    /**
+     * @return the statistics of the client connection pool, or <code>null</code> if not started.
+     */
+    public HttpsConnectionPoolStatistics getConnectionPoolStatistics() {
+    	HttpsConnectionPool connectionPool = m_connectionPool;
+    	return connectionPool == null ? null : connectionPool.getStatistics();
+    }
+
     @Override
     public synchronized void handleEndpointError(Throwable exception) {
         if (m_problemListener != null) {
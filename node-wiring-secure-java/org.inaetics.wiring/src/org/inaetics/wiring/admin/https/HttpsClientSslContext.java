@@ -0,0 +1,145 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.inaetics.truststorage.TrustStorageService;
+
+/**
+ * Holds the {@link SSLContext} used by all client endpoints of a wiring admin.
+ * <p>
+ * Building the context requires loading the key- and truststore, so it is only done when the key
+ * material version reported by the {@link TrustStorageService} changes, e.g. after a renewed keypair
+ * was stored. In all other cases the previously built context is returned.
+ * <p>
+ * As all client endpoints share the same context, they also share its client session cache. Sessions
+ * are cached per remote host and port, so reconnects to a known node can resume the session with
+ * an abbreviated handshake.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public final class HttpsClientSslContext {
+
+    private volatile TrustStorageService m_trustService;
+    private final int m_sessionCacheSize;
+    private final int m_sessionTimeout;
+
+    private volatile CachedContext m_cached;
+
+    /**
+     * @param sessionCacheSize the maximum number of cached client sessions, 0 means no limit;
+     * @param sessionTimeout the time in seconds a client session can be resumed, 0 means no limit.
+     */
+    public HttpsClientSslContext(int sessionCacheSize, int sessionTimeout) {
+        m_sessionCacheSize = sessionCacheSize;
+        m_sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * Sets the trust storage providing the key material. The context is rebuilt on next use.
+     *
+     * @param trustService the trust storage, can be <code>null</code>.
+     */
+    public void setTrustStorageService(TrustStorageService trustService) {
+        m_trustService = trustService;
+        m_cached = null;
+    }
+
+    /**
+     * Returns the current {@link SSLContext}, rebuilding it if the key material has changed.
+     *
+     * @return the SSL context, never <code>null</code>.
+     * @throws GeneralSecurityException in case the context could not be created.
+     */
+    public SSLContext getSslContext() throws GeneralSecurityException {
+        return getCachedContext().m_context;
+    }
+
+    /**
+     * Returns the socket factory of the current {@link SSLContext}, rebuilding it if the key material
+     * has changed.
+     *
+     * @return the SSL socket factory, never <code>null</code>.
+     * @throws GeneralSecurityException in case the context could not be created.
+     */
+    public SSLSocketFactory getSocketFactory() throws GeneralSecurityException {
+        return getCachedContext().m_socketFactory;
+    }
+
+    /**
+     * Drops the cached context, forcing it to be rebuilt on next use.
+     */
+    public void invalidate() {
+        m_cached = null;
+    }
+
+    private CachedContext getCachedContext() throws GeneralSecurityException {
+        TrustStorageService trustService = m_trustService;
+        if (trustService == null) {
+            throw new GeneralSecurityException("No trust storage available");
+        }
+        // read the version before building, so a concurrent update always triggers another rebuild
+        long version = trustService.getKeyMaterialVersion();
+        CachedContext cached = m_cached;
+        if (cached != null && cached.isFor(trustService, version)) {
+            return cached;
+        }
+        synchronized (this) {
+            cached = m_cached;
+            if (cached == null || !cached.isFor(trustService, version)) {
+                cached = new CachedContext(trustService, version, createSslContext(trustService));
+                m_cached = cached;
+            }
+            return cached;
+        }
+    }
+
+    private SSLContext createSslContext(TrustStorageService trustService) throws GeneralSecurityException {
+        // trust
+        KeyStore trustStore = trustService.getTrustStore();
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trustStore);
+
+        // keys
+        KeyStore keyStore = trustService.getKeyStore();
+        char[] keyStoreKeyPassword = trustService.getKeyStoreKeyPassword();
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, keyStoreKeyPassword);
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        SSLSessionContext sessionContext = ctx.getClientSessionContext();
+        sessionContext.setSessionCacheSize(m_sessionCacheSize);
+        sessionContext.setSessionTimeout(m_sessionTimeout);
+        return ctx;
+    }
+
+    private static final class CachedContext {
+
+        private final TrustStorageService m_trustService;
+        private final long m_version;
+        private final SSLContext m_context;
+        private final SSLSocketFactory m_socketFactory;
+
+        CachedContext(TrustStorageService trustService, long version, SSLContext context) {
+            m_trustService = trustService;
+            m_version = version;
+            m_context = context;
+            m_socketFactory = context.getSocketFactory();
+        }
+
+        boolean isFor(TrustStorageService trustService, long version) {
+            return m_trustService == trustService && m_version == version;
+        }
+    }
+}
@@ -0,0 +1,707 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPoolHandler;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.pool.FixedChannelPool.AcquireTimeoutAction;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Pool of persistent TLS connections to remote wiring endpoints.
+ * <p>
+ * A bounded pool of HTTP/1.1 keep-alive connections is kept per remote node (host and port), so
+ * subsequent messages to the same node reuse an established TLS session instead of doing a TCP
+ * connect and a full handshake per message. Connections are checked for being active before they
+ * are handed out, and are closed after being idle for the configured time.
+ * <p>
+ * If pipelining is enabled, requests to endpoints that accept pipelined requests are multiplexed
+ * over one shared connection per remote node: they are written without waiting for the responses
+ * of earlier requests, which HTTP/1.1 returns in request order. Requests that do not fit in the
+ * pipeline anymore use a connection of their own. The remote node processes the requests of one
+ * connection one after the other, so a slow request holds up all requests pipelined after it.
+ * <p>
+ * A request is only sent again if it could not be written to a reused connection. Once written, a
+ * failing connection fails the request with a {@link HttpsUnconfirmedRequestException}, as the
+ * remote node may have processed it already. This also applies to all requests pipelined on a
+ * connection, and to batch requests.
+ * <p>
+ * Responses are received incrementally. They are either collected as a whole, or handed to the
+ * caller as a {@link HttpsResponseStream} as soon as their status is received, in which case the
+ * memory they take is bounded regardless of their size.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public final class HttpsConnectionPool {
+
+    private static final String MIME_TYPE = "application/octet-stream";
+    private static final int DEFAULT_HTTPS_PORT = 443;
+    // larger bodies are collected in a buffer that grows as they arrive
+    private static final int MAX_INITIAL_BODY_SIZE = 1024 * 1024;
+
+    private static final AttributeKey<Deque<PendingRequest>> PENDING_REQUESTS =
+        AttributeKey.valueOf(HttpsConnectionPool.class, "pendingRequests");
+    private static final AttributeKey<PendingRequest> RECEIVING =
+        AttributeKey.valueOf(HttpsConnectionPool.class, "receiving");
+    private static final AttributeKey<Boolean> HOST_VERIFIED =
+        AttributeKey.valueOf(HttpsConnectionPool.class, "hostVerified");
+    private static final AttributeKey<Boolean> USED =
+        AttributeKey.valueOf(HttpsConnectionPool.class, "used");
+    private static final AttributeKey<Boolean> POOLED =
+        AttributeKey.valueOf(HttpsConnectionPool.class, "pooled");
+    private static final AttributeKey<Boolean> SHARED =
+        AttributeKey.valueOf(HttpsConnectionPool.class, "shared");
+
+    private final HttpsClientSslContext m_sslContext;
+    private final int m_readTimeout;
+    private final int m_idleTimeout;
+    private final int m_maxConnectionsPerHost;
+    private final long m_acquireTimeout;
+    private final int m_pipeliningDepth;
+
+    private final EventLoopGroup m_eventLoopGroup;
+    private final Bootstrap m_bootstrap;
+    private final AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> m_pools;
+    private final ConcurrentMap<InetSocketAddress, SharedConnection> m_sharedConnections =
+        new ConcurrentHashMap<InetSocketAddress, SharedConnection>();
+
+    private final AtomicLong m_connectionsCreated = new AtomicLong();
+    private final AtomicLong m_connectionsClosed = new AtomicLong();
+    private final AtomicLong m_idleEvictions = new AtomicLong();
+    private final AtomicLong m_requests = new AtomicLong();
+    private final AtomicLong m_reusedConnectionRequests = new AtomicLong();
+    private final AtomicLong m_pipelinedRequests = new AtomicLong();
+    private final AtomicLong m_retriedRequests = new AtomicLong();
+    private final AtomicLong m_failedRequests = new AtomicLong();
+
+    private volatile boolean m_closed;
+
+    public HttpsConnectionPool(HttpsClientSslContext sslContext, HttpsAdminConfiguration configuration) {
+        m_sslContext = sslContext;
+        m_readTimeout = configuration.getReadTimeout();
+        m_idleTimeout = configuration.getClientPoolIdleTimeout();
+        m_maxConnectionsPerHost = configuration.getClientPoolMaxConnectionsPerHost();
+        // a request may have to wait for all connections to a node to finish their request
+        m_acquireTimeout = (long) configuration.getConnectTimeout() + configuration.getReadTimeout();
+        m_pipeliningDepth = configuration.getClientPipeliningDepth();
+
+        m_eventLoopGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("inaetics-wiring-https-client", true));
+        m_bootstrap = new Bootstrap()
+            .group(m_eventLoopGroup)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, configuration.getConnectTimeout())
+            .option(ChannelOption.TCP_NODELAY, true)
+            .option(ChannelOption.SO_KEEPALIVE, true);
+
+        m_pools = new AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool>() {
+            @Override
+            protected FixedChannelPool newPool(InetSocketAddress remoteAddress) {
+                return new FixedChannelPool(m_bootstrap.clone().remoteAddress(remoteAddress),
+                    new PooledConnectionHandler(remoteAddress), ChannelHealthChecker.ACTIVE, AcquireTimeoutAction.FAIL,
+                    m_acquireTimeout, m_maxConnectionsPerHost, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * Sends a message to the given URL over a pooled connection.
+     *
+     * @param url the URL of the remote endpoint;
+     * @param message the message to send, from its position to its limit. It is sent as is, without
+     *        being copied, so it should not be modified until the returned future completes.
+     * @param pipelined <code>true</code> if the remote endpoint accepts pipelined requests.
+     * @return a future that completes with the response of the remote endpoint, or with an
+     *         {@link IOException} in case the message could not be delivered.
+     */
+    public CompletableFuture<ByteBuffer> send(URL url, ByteBuffer message, boolean pipelined) {
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+        send(url, message, pipelined, result, null);
+        return result;
+    }
+
+    /**
+     * Sends a message to the given URL over a pooled connection, and streams the response.
+     * <p>
+     * While the response is read, its connection cannot be used by other requests. A pipelined
+     * request therefore holds up the requests that were pipelined after it until its response is
+     * read completely, so it should be read without delay.
+     *
+     * @param url the URL of the remote endpoint;
+     * @param message the message to send, from its position to its limit. It is sent as is, without
+     *        being copied, so it should not be modified until the returned future completes.
+     * @param pipelined <code>true</code> if the remote endpoint accepts pipelined requests.
+     * @return a future that completes with the body of the response once it starts to arrive, or
+     *         with an {@link IOException} in case the message could not be delivered. The stream
+     *         should always be closed.
+     */
+    public CompletableFuture<InputStream> sendStreamed(URL url, ByteBuffer message, boolean pipelined) {
+        final HttpsResponseStream stream = new HttpsResponseStream();
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+        send(url, message, pipelined, result, stream);
+        return result.thenApply(new Function<ByteBuffer, InputStream>() {
+            @Override
+            public InputStream apply(ByteBuffer started) {
+                return stream;
+            }
+        });
+    }
+
+    /**
+     * Closes all pooled connections. Pending and subsequent requests fail.
+     */
+    public void close() {
+        m_closed = true;
+        m_pools.close();
+        m_eventLoopGroup.shutdownGracefully(0, m_readTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a snapshot of the statistics of this pool.
+     */
+    public HttpsConnectionPoolStatistics getStatistics() {
+        return new HttpsConnectionPoolStatistics(m_pools.size(), m_connectionsCreated.get(),
+            m_connectionsClosed.get(), m_idleEvictions.get(), m_requests.get(), m_reusedConnectionRequests.get(),
+            m_pipelinedRequests.get(), m_retriedRequests.get(), m_failedRequests.get());
+    }
+
+    private void send(URL url, ByteBuffer message, boolean pipelined, CompletableFuture<ByteBuffer> result,
+        HttpsResponseStream stream) {
+        int port = url.getPort() == -1 ? DEFAULT_HTTPS_PORT : url.getPort();
+        String path = url.getFile().isEmpty() ? "/" : url.getFile();
+        InetSocketAddress remoteAddress = InetSocketAddress.createUnresolved(url.getHost(), port);
+        if (pipelined && m_pipeliningDepth > 0 && !m_closed) {
+            getSharedConnection(remoteAddress).send(path, message, result, stream);
+        }
+        else {
+            send(remoteAddress, path, message, result, stream, true);
+        }
+    }
+
+    private SharedConnection getSharedConnection(InetSocketAddress remoteAddress) {
+        SharedConnection connection = m_sharedConnections.get(remoteAddress);
+        if (connection == null) {
+            SharedConnection created = new SharedConnection(remoteAddress);
+            connection = m_sharedConnections.putIfAbsent(remoteAddress, created);
+            if (connection == null) {
+                connection = created;
+                created.open();
+            }
+        }
+        return connection;
+    }
+
+    private void send(final InetSocketAddress remoteAddress, final String path, final ByteBuffer content,
+        final CompletableFuture<ByteBuffer> result, final HttpsResponseStream stream, final boolean mayRetry) {
+
+        if (m_closed) {
+            failed(result, new IOException("Connection pool is closed"));
+            return;
+        }
+
+        final FixedChannelPool pool = m_pools.get(remoteAddress);
+        pool.acquire().addListener(new FutureListener<Channel>() {
+            @Override
+            public void operationComplete(Future<Channel> future) throws Exception {
+                if (!future.isSuccess()) {
+                    failed(result, future.cause());
+                    return;
+                }
+                final Channel channel = future.getNow();
+                final SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+                sslHandler.handshakeFuture().addListener(new FutureListener<Channel>() {
+                    @Override
+                    public void operationComplete(Future<Channel> handshake) throws Exception {
+                        if (!handshake.isSuccess()) {
+                            pool.release(channel);
+                            failed(result, handshake.cause());
+                            return;
+                        }
+                        try {
+                            if (!isHostVerified(channel, sslHandler, remoteAddress.getHostString())) {
+                                throw new SSLPeerUnverifiedException("Peer certificate does not match host "
+                                    + remoteAddress.getHostString());
+                            }
+                            PendingRequest request = new PendingRequest(pool, channel, remoteAddress, path, content,
+                                result, stream, mayRetry);
+                            request.write();
+                        }
+                        catch (Exception e) {
+                            channel.close();
+                            pool.release(channel);
+                            failed(result, e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static boolean isHostVerified(Channel channel, SslHandler sslHandler, String host) {
+        Boolean verified = channel.attr(HOST_VERIFIED).get();
+        if (verified == null) {
+            verified = HttpsClientEndpoint.HOSTNAME_VERIFIER.verify(host, sslHandler.engine().getSession());
+            channel.attr(HOST_VERIFIED).set(verified);
+        }
+        return verified;
+    }
+
+    private void failed(CompletableFuture<ByteBuffer> result, Throwable cause) {
+        m_failedRequests.incrementAndGet();
+        if (cause instanceof IOException) {
+            result.completeExceptionally(cause);
+        }
+        else {
+            result.completeExceptionally(new IOException(cause.getMessage(), cause));
+        }
+    }
+
+    private static boolean isSuccess(HttpResponseStatus status) {
+        // one-way messages are accepted before they are processed
+        return HttpResponseStatus.OK.equals(status) || HttpResponseStatus.ACCEPTED.equals(status);
+    }
+
+    /**
+     * A request that was written to a connection and awaits its response. Completion is claimed by
+     * removing the request from the pending requests of the channel, or once its response started to
+     * arrive from the receiving request of the channel, so it is completed exactly once. These are
+     * only accessed from the event loop of the channel.
+     */
+    private final class PendingRequest implements Runnable {
+
+        // the pool to release the connection to, or null for a shared connection
+        private final FixedChannelPool m_pool;
+        private final Channel m_channel;
+        private final InetSocketAddress m_remoteAddress;
+        private final String m_path;
+        private final ByteBuffer m_content;
+        private final CompletableFuture<ByteBuffer> m_result;
+        // the stream to hand the body to, or null to collect it as a whole
+        private final HttpsResponseStream m_stream;
+        private final boolean m_mayRetry;
+        private final boolean m_reused;
+
+        private ScheduledFuture<?> m_timeout;
+        private boolean m_written;
+        private long m_lastRead;
+        private HttpResponseStatus m_status;
+        private boolean m_keepAlive;
+        private byte[] m_body;
+        private int m_bodyLength;
+
+        PendingRequest(FixedChannelPool pool, Channel channel, InetSocketAddress remoteAddress, String path,
+            ByteBuffer content, CompletableFuture<ByteBuffer> result, HttpsResponseStream stream, boolean mayRetry) {
+            m_pool = pool;
+            m_channel = channel;
+            m_remoteAddress = remoteAddress;
+            m_path = path;
+            m_content = content;
+            m_result = result;
+            m_stream = stream;
+            m_mayRetry = mayRetry;
+            m_reused = channel.attr(USED).getAndSet(Boolean.TRUE) != null;
+        }
+
+        void write() {
+            m_requests.incrementAndGet();
+            if (m_reused) {
+                m_reusedConnectionRequests.incrementAndGet();
+            }
+
+            // wrap a duplicate, as a retry needs to send the content again
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, m_path,
+                Unpooled.wrappedBuffer(m_content.duplicate()));
+            setHeaders(request, m_remoteAddress.getHostString() + ":" + m_remoteAddress.getPort());
+            HttpUtil.setContentLength(request, m_content.remaining());
+            HttpUtil.setKeepAlive(request, true);
+
+            m_channel.attr(PENDING_REQUESTS).get().add(this);
+            m_lastRead = System.nanoTime();
+            m_timeout = m_channel.eventLoop().schedule(this, m_readTimeout, TimeUnit.MILLISECONDS);
+            m_channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        m_written = true;
+                    }
+                    else if (claim(m_channel, PendingRequest.this)) {
+                        failed(future.cause());
+                    }
+                }
+            });
+        }
+
+        /**
+         * Read timeout, nothing was received for the configured time.
+         */
+        @Override
+        public void run() {
+            long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_lastRead);
+            if (idle < m_readTimeout || (m_stream != null && m_stream.isSuspended())) {
+                // still receiving, or waiting for the reader of the stream rather than the remote node
+                m_timeout = m_channel.eventLoop().schedule(this, Math.max(1, m_readTimeout - idle), TimeUnit.MILLISECONDS);
+            }
+            else if (claim(m_channel, this)) {
+                failed(new SocketTimeoutException("Read timed out"));
+            }
+        }
+
+        void responseReceived(HttpResponse response) {
+            m_lastRead = System.nanoTime();
+            m_status = response.status();
+            m_keepAlive = HttpUtil.isKeepAlive(response);
+            if (!isSuccess(m_status)) {
+                // the body is discarded, the request fails once it is received
+                return;
+            }
+            if (m_stream != null) {
+                m_stream.attach(m_channel);
+                m_result.complete(null);
+            }
+            else {
+                long length = HttpUtil.getContentLength(response, -1L);
+                m_body = new byte[length >= 0 && length <= MAX_INITIAL_BODY_SIZE ? (int) length : 8192];
+            }
+        }
+
+        void contentReceived(HttpContent content) {
+            m_lastRead = System.nanoTime();
+            ByteBuf data = content.content();
+            if (!data.isReadable() || !isSuccess(m_status)) {
+                return;
+            }
+            if (m_stream != null) {
+                // the content is released after this call, the stream releases it once it is read
+                m_stream.chunkReceived(data.retain());
+                return;
+            }
+            int length = data.readableBytes();
+            if (m_bodyLength + length > m_body.length) {
+                m_body = Arrays.copyOf(m_body, Math.max(m_body.length << 1, m_bodyLength + length));
+            }
+            data.readBytes(m_body, m_bodyLength, length);
+            m_bodyLength += length;
+        }
+
+        void responseCompleted() {
+            m_timeout.cancel(false);
+            if (m_stream != null && isSuccess(m_status)) {
+                m_stream.ended();
+            }
+            if (!m_keepAlive) {
+                m_channel.close();
+            }
+            release();
+
+            if (!isSuccess(m_status)) {
+                HttpsConnectionPool.this.failed(m_result, new IOException("Unexpected HTTP response: "
+                    + m_status.code() + " " + m_status.reasonPhrase()));
+            }
+            else if (m_stream == null) {
+                m_result.complete(ByteBuffer.wrap(m_body, 0, m_bodyLength));
+            }
+        }
+
+        void failed(Throwable cause) {
+            if (m_timeout != null) {
+                m_timeout.cancel(false);
+            }
+            m_channel.close();
+            release();
+
+            if (m_stream != null && m_result.isDone()) {
+                // the stream was handed out already
+                m_failedRequests.incrementAndGet();
+                m_stream.failed(cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause));
+            }
+            // a reused keep-alive connection might have been closed by the remote node just before
+            // the request was written, in which case it is safe to retry once on a new connection.
+            // Once the request is flushed, the remote node may have processed it already.
+            else if (m_reused && m_mayRetry && !m_written && cause instanceof ClosedChannelException) {
+                m_retriedRequests.incrementAndGet();
+                send(m_remoteAddress, m_path, m_content, m_result, m_stream, false);
+            }
+            else if (m_written && m_status == null && !(cause instanceof SocketTimeoutException)) {
+                HttpsConnectionPool.this.failed(m_result, new HttpsUnconfirmedRequestException(cause));
+            }
+            else {
+                HttpsConnectionPool.this.failed(m_result, cause);
+            }
+        }
+
+        private void release() {
+            // a shared connection is released when it is closed
+            if (m_pool != null) {
+                m_pool.release(m_channel);
+            }
+        }
+    }
+
+    // all setters of string values are deprecated in this version of Netty, without a replacement
+    @SuppressWarnings("deprecation")
+    private static void setHeaders(FullHttpRequest request, String host) {
+        request.headers().set(HttpHeaderNames.HOST, host);
+        request.headers().set(HttpHeaderNames.CONTENT_TYPE, MIME_TYPE);
+    }
+
+    private static boolean claim(Channel channel, PendingRequest request) {
+        if (channel.attr(RECEIVING).get() == request) {
+            channel.attr(RECEIVING).set(null);
+            return true;
+        }
+        return channel.attr(PENDING_REQUESTS).get().remove(request);
+    }
+
+    /**
+     * A connection to a remote node that is shared by all pipelined requests to that node. It is
+     * acquired from the pool of the node once, and released to it when it is closed.
+     */
+    private final class SharedConnection {
+
+        private final InetSocketAddress m_remoteAddress;
+        private final CompletableFuture<Channel> m_ready = new CompletableFuture<Channel>();
+
+        SharedConnection(InetSocketAddress remoteAddress) {
+            m_remoteAddress = remoteAddress;
+        }
+
+        void open() {
+            final FixedChannelPool pool = m_pools.get(m_remoteAddress);
+            pool.acquire().addListener(new FutureListener<Channel>() {
+                @Override
+                public void operationComplete(Future<Channel> future) throws Exception {
+                    if (!future.isSuccess()) {
+                        closed();
+                        m_ready.completeExceptionally(future.cause());
+                        return;
+                    }
+                    final Channel channel = future.getNow();
+                    channel.attr(SHARED).set(Boolean.TRUE);
+                    channel.closeFuture().addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture closeFuture) throws Exception {
+                            closed();
+                            channel.attr(SHARED).set(null);
+                            pool.release(channel);
+                        }
+                    });
+
+                    final SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+                    sslHandler.handshakeFuture().addListener(new FutureListener<Channel>() {
+                        @Override
+                        public void operationComplete(Future<Channel> handshake) throws Exception {
+                            if (!handshake.isSuccess()) {
+                                channel.close();
+                                m_ready.completeExceptionally(handshake.cause());
+                            }
+                            else if (!isHostVerified(channel, sslHandler, m_remoteAddress.getHostString())) {
+                                channel.close();
+                                m_ready.completeExceptionally(new SSLPeerUnverifiedException(
+                                    "Peer certificate does not match host " + m_remoteAddress.getHostString()));
+                            }
+                            else {
+                                m_ready.complete(channel);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        void send(final String path, final ByteBuffer content, final CompletableFuture<ByteBuffer> result,
+            final HttpsResponseStream stream) {
+            m_ready.whenComplete(new BiConsumer<Channel, Throwable>() {
+                @Override
+                public void accept(final Channel channel, Throwable failure) {
+                    if (failure != null) {
+                        failed(result, failure);
+                        return;
+                    }
+                    channel.eventLoop().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!channel.isActive() || channel.attr(PENDING_REQUESTS).get().size() >= m_pipeliningDepth) {
+                                // the pipeline is full or the connection is gone, use a connection of its own
+                                HttpsConnectionPool.this.send(m_remoteAddress, path, content, result, stream, true);
+                                return;
+                            }
+                            m_pipelinedRequests.incrementAndGet();
+                            new PendingRequest(null, channel, m_remoteAddress, path, content, result, stream, true).write();
+                        }
+                    });
+                }
+            });
+        }
+
+        private void closed() {
+            m_sharedConnections.remove(m_remoteAddress, this);
+        }
+    }
+
+    /**
+     * Sets up the pipeline of new pooled connections and keeps track of their life cycle.
+     */
+    private final class PooledConnectionHandler implements ChannelPoolHandler {
+
+        private final InetSocketAddress m_remoteAddress;
+
+        PooledConnectionHandler(InetSocketAddress remoteAddress) {
+            m_remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public void channelCreated(Channel channel) throws Exception {
+            SSLEngine engine =
+                m_sslContext.getSslContext().createSSLEngine(m_remoteAddress.getHostString(), m_remoteAddress.getPort());
+            engine.setUseClientMode(true);
+
+            channel.attr(PENDING_REQUESTS).set(new ArrayDeque<PendingRequest>());
+            channel.pipeline()
+                .addLast("ssl", new SslHandler(engine))
+                .addLast("idle", new IdleStateHandler(0, 0, m_idleTimeout, TimeUnit.MILLISECONDS))
+                .addLast("codec", new HttpClientCodec())
+                .addLast("handler", new ResponseHandler());
+
+            m_connectionsCreated.incrementAndGet();
+            channel.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    m_connectionsClosed.incrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        public void channelAcquired(Channel channel) throws Exception {
+            channel.attr(POOLED).set(null);
+        }
+
+        @Override
+        public void channelReleased(Channel channel) throws Exception {
+            channel.attr(POOLED).set(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Hands responses to the pending requests of a connection in request order, and closes idle
+     * connections.
+     */
+    private final class ResponseHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject message) throws Exception {
+            Channel channel = ctx.channel();
+            if (message instanceof HttpResponse) {
+                PendingRequest request = channel.attr(PENDING_REQUESTS).get().poll();
+                channel.attr(RECEIVING).set(request);
+                if (request != null) {
+                    request.responseReceived((HttpResponse) message);
+                }
+            }
+            if (message instanceof HttpContent) {
+                // no receiving request for the rest of a response to a request that failed
+                PendingRequest request = channel.attr(RECEIVING).get();
+                if (request != null) {
+                    request.contentReceived((HttpContent) message);
+                    if (message instanceof LastHttpContent) {
+                        channel.attr(RECEIVING).set(null);
+                        request.responseCompleted();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            failAll(ctx.channel(), new ClosedChannelException());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            failAll(ctx.channel(), cause);
+            ctx.close();
+        }
+
+        private void failAll(Channel channel, Throwable cause) {
+            PendingRequest request = channel.attr(RECEIVING).getAndSet(null);
+            if (request != null) {
+                request.failed(cause);
+            }
+            Deque<PendingRequest> requests = channel.attr(PENDING_REQUESTS).get();
+            while ((request = requests.poll()) != null) {
+                request.failed(cause);
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                // only evict connections that are waiting in the pool or shared connections without
+                // pending requests, not ones that are still handshaking or waiting for a response
+                Channel channel = ctx.channel();
+                if (channel.attr(POOLED).get() != null || (channel.attr(SHARED).get() != null
+                    && channel.attr(PENDING_REQUESTS).get().isEmpty() && channel.attr(RECEIVING).get() == null)) {
+                    m_idleEvictions.incrementAndGet();
+                    ctx.close();
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+}
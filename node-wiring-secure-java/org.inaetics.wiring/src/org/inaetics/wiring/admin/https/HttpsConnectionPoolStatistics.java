@@ -0,0 +1,117 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+/**
+ * Immutable snapshot of the statistics of a {@link HttpsConnectionPool}.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public final class HttpsConnectionPoolStatistics {
+
+    private final int m_remoteNodes;
+    private final long m_connectionsCreated;
+    private final long m_connectionsClosed;
+    private final long m_idleEvictions;
+    private final long m_requests;
+    private final long m_reusedConnectionRequests;
+    private final long m_pipelinedRequests;
+    private final long m_retriedRequests;
+    private final long m_failedRequests;
+
+    HttpsConnectionPoolStatistics(int remoteNodes, long connectionsCreated, long connectionsClosed, long idleEvictions,
+        long requests, long reusedConnectionRequests, long pipelinedRequests, long retriedRequests,
+        long failedRequests) {
+        m_remoteNodes = remoteNodes;
+        m_connectionsCreated = connectionsCreated;
+        m_connectionsClosed = connectionsClosed;
+        m_idleEvictions = idleEvictions;
+        m_requests = requests;
+        m_reusedConnectionRequests = reusedConnectionRequests;
+        m_pipelinedRequests = pipelinedRequests;
+        m_retriedRequests = retriedRequests;
+        m_failedRequests = failedRequests;
+    }
+
+    /**
+     * @return the number of remote nodes a pool of connections is kept for.
+     */
+    public int getRemoteNodes() {
+        return m_remoteNodes;
+    }
+
+    /**
+     * @return the number of connections that were opened since the pool was started.
+     */
+    public long getConnectionsCreated() {
+        return m_connectionsCreated;
+    }
+
+    /**
+     * @return the number of connections that were closed since the pool was started.
+     */
+    public long getConnectionsClosed() {
+        return m_connectionsClosed;
+    }
+
+    /**
+     * @return the number of connections that are currently open, either idle or in use.
+     */
+    public long getOpenConnections() {
+        return m_connectionsCreated - m_connectionsClosed;
+    }
+
+    /**
+     * @return the number of connections that were closed because they were idle for too long.
+     */
+    public long getIdleEvictions() {
+        return m_idleEvictions;
+    }
+
+    /**
+     * @return the number of requests that were sent.
+     */
+    public long getRequests() {
+        return m_requests;
+    }
+
+    /**
+     * @return the number of requests that were sent over an already established connection.
+     */
+    public long getReusedConnectionRequests() {
+        return m_reusedConnectionRequests;
+    }
+
+    /**
+     * @return the number of requests that were pipelined on the shared connection to a remote node.
+     */
+    public long getPipelinedRequests() {
+        return m_pipelinedRequests;
+    }
+
+    /**
+     * @return the number of requests that were retried on a new connection because the reused
+     *         connection turned out to be closed by the remote node.
+     */
+    public long getRetriedRequests() {
+        return m_retriedRequests;
+    }
+
+    /**
+     * @return the number of requests that failed.
+     */
+    public long getFailedRequests() {
+        return m_failedRequests;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpsConnectionPoolStatistics [remoteNodes=" + m_remoteNodes + ", openConnections="
+            + getOpenConnections() + ", connectionsCreated=" + m_connectionsCreated + ", connectionsClosed="
+            + m_connectionsClosed + ", idleEvictions=" + m_idleEvictions + ", requests=" + m_requests
+            + ", reusedConnectionRequests=" + m_reusedConnectionRequests + ", pipelinedRequests="
+            + m_pipelinedRequests + ", retriedRequests=" + m_retriedRequests
+            + ", failedRequests=" + m_failedRequests + "]";
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces the messages sent to the endpoints of one remote node into batch requests.
+ * <p>
+ * A message waits at most the configured window for other messages, and a batch is sent as soon as
+ * it reaches the maximum number of messages or bytes. A batch of a single message is sent as a
+ * normal request to its endpoint. The remote node handles the messages of a batch independently,
+ * and returns a reply for each of them.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public final class HttpsMessageBatcher implements Runnable {
+
+    private final URL m_batchUrl;
+    private final boolean m_pipelined;
+    private final HttpsConnectionPool m_connectionPool;
+    private final ScheduledExecutorService m_scheduler;
+    private final long m_window;
+    private final int m_maxMessages;
+    private final int m_maxBytes;
+
+    private List<PendingMessage> m_pending = new ArrayList<PendingMessage>();
+    private int m_pendingBytes;
+
+    /**
+     * @param batchUrl the URL batch requests are sent to;
+     * @param pipelined <code>true</code> if the remote node accepts pipelined requests;
+     * @param connectionPool the pool to send requests with;
+     * @param scheduler the scheduler that sends batches once their window has passed;
+     * @param configuration the configuration with the batch window and sizes.
+     */
+    public HttpsMessageBatcher(URL batchUrl, boolean pipelined, HttpsConnectionPool connectionPool,
+        ScheduledExecutorService scheduler, HttpsAdminConfiguration configuration) {
+        m_batchUrl = batchUrl;
+        m_pipelined = pipelined;
+        m_connectionPool = connectionPool;
+        m_scheduler = scheduler;
+        m_window = configuration.getClientBatchWindow();
+        m_maxMessages = Math.max(1, configuration.getClientBatchMaxMessages());
+        m_maxBytes = Math.max(1, configuration.getClientBatchMaxBytes());
+    }
+
+    /**
+     * Adds a message to the current batch.
+     *
+     * @param endpointId the id of the remote endpoint;
+     * @param url the URL of the remote endpoint, used if the message is sent on its own;
+     * @param message the message to send, from its position to its limit. It should not be modified
+     *        until the returned future completes.
+     * @return a future that completes with the response of the remote endpoint, or with an
+     *         {@link IOException} in case the message could not be delivered.
+     */
+    public CompletableFuture<ByteBuffer> send(String endpointId, URL url, ByteBuffer message) {
+        PendingMessage pending = new PendingMessage(endpointId, url, message);
+        List<PendingMessage> batch = null;
+        boolean schedule = false;
+        synchronized (this) {
+            m_pending.add(pending);
+            m_pendingBytes += message.remaining();
+            if (m_pending.size() >= m_maxMessages || m_pendingBytes >= m_maxBytes) {
+                batch = takePending();
+            }
+            else {
+                schedule = m_pending.size() == 1;
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        else if (schedule) {
+            try {
+                m_scheduler.schedule(this, m_window, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                // the scheduler is shut down, do not keep the message waiting
+                run();
+            }
+        }
+        return pending.m_result;
+    }
+
+    /**
+     * Sends the current batch once its window has passed.
+     */
+    @Override
+    public void run() {
+        List<PendingMessage> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private List<PendingMessage> takePending() {
+        List<PendingMessage> batch = m_pending;
+        m_pending = new ArrayList<PendingMessage>();
+        m_pendingBytes = 0;
+        return batch;
+    }
+
+    private void send(final List<PendingMessage> batch) {
+        if (batch.size() == 1) {
+            PendingMessage pending = batch.get(0);
+            propagate(m_connectionPool.send(pending.m_url, pending.m_message, m_pipelined), pending.m_result);
+            return;
+        }
+
+        List<String> endpointIds = new ArrayList<String>(batch.size());
+        List<ByteBuffer> messages = new ArrayList<ByteBuffer>(batch.size());
+        for (PendingMessage pending : batch) {
+            endpointIds.add(pending.m_endpointId);
+            messages.add(pending.m_message);
+        }
+        ByteBuffer request = HttpsBatchFrames.encodeRequests(endpointIds, messages);
+
+        m_connectionPool.send(m_batchUrl, request, m_pipelined).whenComplete(new BiConsumer<ByteBuffer, Throwable>() {
+            @Override
+            public void accept(ByteBuffer response, Throwable failure) {
+                int[] statuses = new int[batch.size()];
+                ByteBuffer[] replies = new ByteBuffer[batch.size()];
+                if (failure == null) {
+                    try {
+                        HttpsBatchFrames.decodeReplies(response, statuses, replies);
+                    }
+                    catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    CompletableFuture<ByteBuffer> result = batch.get(i).m_result;
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    }
+                    else if (statuses[i] == 200) {
+                        // a message without reply gets an empty response, as it would without batching
+                        result.complete(replies[i] == null ? ByteBuffer.allocate(0) : replies[i]);
+                    }
+                    else {
+                        result.completeExceptionally(new IOException("Unexpected HTTP response: " + statuses[i]));
+                    }
+                }
+            }
+        });
+    }
+
+    private static void propagate(CompletableFuture<ByteBuffer> source, final CompletableFuture<ByteBuffer> target) {
+        source.whenComplete(new BiConsumer<ByteBuffer, Throwable>() {
+            @Override
+            public void accept(ByteBuffer response, Throwable failure) {
+                if (failure == null) {
+                    target.complete(response);
+                }
+                else {
+                    target.completeExceptionally(failure);
+                }
+            }
+        });
+    }
+
+    private static final class PendingMessage {
+
+        private final String m_endpointId;
+        private final URL m_url;
+        private final ByteBuffer m_message;
+        private final CompletableFuture<ByteBuffer> m_result = new CompletableFuture<ByteBuffer>();
+
+        PendingMessage(String endpointId, URL url, ByteBuffer message) {
+            m_endpointId = endpointId;
+            m_url = url;
+            m_message = message;
+        }
+    }
+}
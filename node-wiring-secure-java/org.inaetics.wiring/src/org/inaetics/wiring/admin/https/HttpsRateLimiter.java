@@ -0,0 +1,123 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter with a bucket per key.
+ * <p>
+ * Each bucket holds up to <code>burst</code> tokens and is refilled with <code>rate</code> tokens
+ * per second. Instead of a token count, a bucket stores the time at which it is full again, so
+ * taking a token is a single compare-and-set without locking. Buckets that are full again are
+ * equivalent to new ones, and are dropped once there are many buckets.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public final class HttpsRateLimiter {
+
+    private static final int MAX_IDLE_BUCKETS = 4096;
+
+    private final long m_interval;
+    private final long m_capacity;
+    private final ConcurrentMap<String, AtomicLong> m_buckets = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong m_rejected = new AtomicLong();
+
+    /**
+     * @param rate the number of tokens per second a bucket is refilled with, 0 or less for no limit;
+     * @param burst the maximum number of tokens in a bucket, at least 1.
+     */
+    public HttpsRateLimiter(int rate, int burst) {
+        m_interval = rate > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        m_capacity = m_interval * Math.max(1, burst);
+    }
+
+    /**
+     * @return <code>true</code> if this limiter limits the rate, <code>false</code> if it accepts everything.
+     */
+    public boolean isEnabled() {
+        return m_interval > 0;
+    }
+
+    /**
+     * Takes a token from the bucket of the given key.
+     *
+     * @param key the key of the bucket, cannot be <code>null</code>.
+     * @return 0 if a token was taken, otherwise the time in nanoseconds until a token is available.
+     */
+    public long tryAcquire(String key) {
+        if (m_interval == 0) {
+            return 0;
+        }
+        AtomicLong bucket = getBucket(key);
+        while (true) {
+            long now = System.nanoTime();
+            long full = bucket.get();
+            long updated = (full - now > 0 ? full : now) + m_interval;
+            long excess = updated - now - m_capacity;
+            if (excess > 0) {
+                m_rejected.incrementAndGet();
+                return excess;
+            }
+            if (bucket.compareAndSet(full, updated)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken from the bucket of the given key, as the message it was taken for was not admitted
+     * after all.
+     *
+     * @param key the key of the bucket, cannot be <code>null</code>.
+     */
+    public void release(String key) {
+        if (m_interval == 0) {
+            return;
+        }
+        AtomicLong bucket = m_buckets.get(key);
+        if (bucket != null) {
+            // a time before now means the bucket is full, so it cannot hold more than its burst
+            bucket.addAndGet(-m_interval);
+        }
+    }
+
+    /**
+     * @return the number of times a token was not available.
+     */
+    public long getRejected() {
+        return m_rejected.get();
+    }
+
+    private AtomicLong getBucket(String key) {
+        AtomicLong bucket = m_buckets.get(key);
+        if (bucket == null) {
+            if (m_buckets.size() >= MAX_IDLE_BUCKETS) {
+                removeFullBuckets();
+            }
+            AtomicLong created = new AtomicLong(System.nanoTime());
+            bucket = m_buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private void removeFullBuckets() {
+        long now = System.nanoTime();
+        Iterator<Entry<String, AtomicLong>> iterator = m_buckets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            // a token taken concurrently from a removed bucket is not accounted, which is harmless
+            if (iterator.next().getValue().get() - now <= 0) {
+                iterator.remove();
+            }
+        }
+    }
+}
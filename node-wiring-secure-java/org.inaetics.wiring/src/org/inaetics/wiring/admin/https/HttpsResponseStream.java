@@ -0,0 +1,177 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Stream of the body of a response that is still being received.
+ * <p>
+ * The connection hands the chunks of the body to the stream as they arrive. Once the reader is more
+ * than {@link #HIGH_WATER_MARK} bytes behind, reading from the connection is suspended until the
+ * reader has caught up to {@link #LOW_WATER_MARK} bytes, so the memory a response takes is bounded
+ * regardless of its size. Closing the stream before its end closes the connection, as the rest of
+ * the response cannot be skipped otherwise.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+final class HttpsResponseStream extends InputStream {
+
+    static final int HIGH_WATER_MARK = 256 * 1024;
+    static final int LOW_WATER_MARK = 64 * 1024;
+
+    private final Deque<ByteBuf> m_chunks = new ArrayDeque<ByteBuf>();
+
+    private Channel m_channel;
+    private int m_buffered;
+    private boolean m_suspended;
+    private boolean m_ended;
+    private boolean m_closed;
+    private IOException m_failure;
+
+    /**
+     * Called on the event loop once the response starts to arrive on the given connection.
+     */
+    synchronized void attach(Channel channel) {
+        m_channel = channel;
+    }
+
+    /**
+     * Called on the event loop with each chunk of the body, which is released once it is read.
+     */
+    synchronized void chunkReceived(ByteBuf chunk) {
+        if (m_closed || m_failure != null) {
+            chunk.release();
+            return;
+        }
+        m_chunks.add(chunk);
+        m_buffered += chunk.readableBytes();
+        if (!m_suspended && m_buffered >= HIGH_WATER_MARK) {
+            m_suspended = true;
+            m_channel.config().setAutoRead(false);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Called on the event loop once the body is received completely.
+     */
+    synchronized void ended() {
+        m_ended = true;
+        // the connection can be used for other requests again
+        resume();
+        notifyAll();
+    }
+
+    /**
+     * Called on the event loop in case the body could not be received completely.
+     */
+    synchronized void failed(IOException cause) {
+        if (m_ended || m_closed) {
+            return;
+        }
+        m_failure = cause;
+        releaseChunks();
+        notifyAll();
+    }
+
+    /**
+     * @return <code>true</code> if reading from the connection is suspended until the reader catches up.
+     */
+    synchronized boolean isSuspended() {
+        return m_suspended;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (m_closed) {
+                throw new IOException("Stream closed");
+            }
+            if (m_failure != null) {
+                throw new IOException("Response incomplete: " + m_failure, m_failure);
+            }
+            ByteBuf chunk = m_chunks.peek();
+            if (chunk != null) {
+                int count = Math.min(len, chunk.readableBytes());
+                chunk.readBytes(b, off, count);
+                if (!chunk.isReadable()) {
+                    m_chunks.poll();
+                    chunk.release();
+                }
+                m_buffered -= count;
+                if (m_buffered <= LOW_WATER_MARK) {
+                    resume();
+                }
+                return count;
+            }
+            if (m_ended) {
+                return -1;
+            }
+            try {
+                // the read timeout of the connection fails the stream if the remote node stalls
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for response");
+            }
+        }
+    }
+
+    @Override
+    public synchronized int available() {
+        return m_buffered;
+    }
+
+    @Override
+    public void close() {
+        Channel abort = null;
+        synchronized (this) {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            if (!m_ended && m_failure == null) {
+                abort = m_channel;
+            }
+            releaseChunks();
+            notifyAll();
+        }
+        if (abort != null) {
+            abort.close();
+        }
+    }
+
+    private void resume() {
+        if (m_suspended) {
+            m_suspended = false;
+            m_channel.config().setAutoRead(true);
+        }
+    }
+
+    private void releaseChunks() {
+        ByteBuf chunk;
+        while ((chunk = m_chunks.poll()) != null) {
+            chunk.release();
+        }
+        m_buffered = 0;
+    }
+}
@@ -5,8 +5,22 @@ package org.inaetics.wiring.admin.https;
 
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
-import java.io.InputStream;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -22,15 +36,53 @@ import org.inaetics.wiring.endpoint.WiringReceiver;
  */
 public final class HttpsServerEndpoint {
 
-    private static final String MIME_TYPE = "text/plain;charset=utf-8";
+    private static final String MIME_TYPE = "application/octet-stream";
+    private static final long IDLE_THREAD_TIMEOUT = 60000;
 
     private WiringEndpointDescription m_endpoint;
     private WiringReceiver m_receiver;
     private ServerEndpointProblemListener m_problemListener;
+    private final ThreadPoolExecutor m_executor;
+    private final Executor m_oneWayExecutor;
+    // fair, so one-way messages processed on the threads that received them keep their order
+    private final ReentrantLock m_oneWayLock = new ReentrantLock(true);
+    private final int m_queueCapacity;
+    private final AtomicLong m_rejectedMessages = new AtomicLong();
 
-    public HttpsServerEndpoint(WiringEndpointDescription endpoint, WiringReceiver receiver) {
+    /**
+     * @param endpoint the description of the endpoint;
+     * @param receiver the receiver of the messages of the endpoint;
+     * @param threads the number of threads that process the messages of the endpoint, 0 to process
+     *        them on the thread that received them;
+     * @param queueSize the maximum number of messages that wait for a thread, further messages are
+     *        rejected by the executor.
+     */
+    public HttpsServerEndpoint(WiringEndpointDescription endpoint, WiringReceiver receiver, int threads, int queueSize) {
     	m_endpoint = endpoint;
     	m_receiver = receiver;
+    	m_queueCapacity = Math.max(0, queueSize);
+    	if (threads > 0) {
+    	    BlockingQueue<Runnable> queue = m_queueCapacity > 0 ? new ArrayBlockingQueue<Runnable>(m_queueCapacity)
+    	        : new SynchronousQueue<Runnable>();
+    	    m_executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT, TimeUnit.MILLISECONDS, queue,
+    	        new DefaultThreadFactory("inaetics-wiring-https-server", true), new RejectedExecutionHandler() {
+    	            @Override
+    	            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+    	                if (executor.isShutdown()) {
+    	                    throw new RejectedExecutionException("Endpoint is closed");
+    	                }
+    	                m_rejectedMessages.incrementAndGet();
+    	                throw new RejectedExecutionException("Endpoint is overloaded");
+    	            }
+    	        });
+    	    // wires without traffic do not keep any threads
+    	    m_executor.allowCoreThreadTimeOut(true);
+    	    m_oneWayExecutor = new SerialExecutor(m_executor, m_queueCapacity);
+    	}
+    	else {
+    	    m_executor = null;
+    	    m_oneWayExecutor = null;
+    	}
     }
 
     /**
@@ -40,26 +92,161 @@ public final class HttpsServerEndpoint {
         m_problemListener = problemListener;
     }
 
-    public void handleMessage(HttpServletRequest req, HttpServletResponse resp) throws Exception {
+    /**
+     * @return the executor that processes the messages of this endpoint, or <code>null</code> if they
+     *         are processed on the thread that received them. It throws a {@link RejectedExecutionException}
+     *         if the endpoint is closed, or if all its threads are busy and its queue is full.
+     */
+    public Executor getExecutor() {
+        return m_executor;
+    }
 
-    	InputStream in = req.getInputStream();
-    	OutputStream out = resp.getOutputStream();
+    /**
+     * @return the executor that processes the one-way messages of this endpoint one at a time, in the
+     *         order they were received, or <code>null</code> if they are processed on the thread that
+     *         received them. It uses the threads of {@link #getExecutor()}, and throws a
+     *         {@link RejectedExecutionException} in the same cases.
+     */
+    public Executor getOneWayExecutor() {
+        return m_oneWayExecutor;
+    }
 
-    	try {
+    /**
+     * @return a snapshot of the statistics of the executor of this endpoint, or <code>null</code> if
+     *         messages are processed on the thread that received them.
+     */
+    public HttpsServerEndpointStatistics getStatistics() {
+        if (m_executor == null) {
+            return null;
+        }
+        return new HttpsServerEndpointStatistics(m_executor.getMaximumPoolSize(), m_executor.getActiveCount(),
+            m_executor.getQueue().size(), m_queueCapacity, m_executor.getCompletedTaskCount(), m_rejectedMessages.get());
+    }
 
-        	String message = IOUtil.convertStreamToString(in, "UTF-8");
-			String result = m_receiver.messageReceived(message);
+    /**
+     * Stops processing messages, messages that are already queued are still processed.
+     */
+    public void close() {
+        if (m_executor != null) {
+            m_executor.shutdown();
+        }
+    }
 
-            resp.setStatus(SC_OK);
-            resp.setContentType(MIME_TYPE);
-            
-            out.write(result.getBytes("UTF-8"));
-            
+    /**
+     * Passes a message to the receiver of this endpoint.
+     *
+     * @param message the message, from its position to its limit.
+     * @return the reply of the receiver, or <code>null</code> if there is none.
+     * @throws Exception in case the receiver failed to process the message.
+     */
+    public ByteBuffer processMessage(ByteBuffer message) throws Exception {
+        return m_receiver.messageReceived(message);
+    }
+
+    /**
+     * Passes a one-way message to the receiver of this endpoint, after the one-way messages that
+     * were passed to it before.
+     *
+     * @param message the message, from its position to its limit.
+     * @throws Exception in case the receiver failed to process the message.
+     */
+    public void processOneWayMessage(ByteBuffer message) throws Exception {
+        m_oneWayLock.lock();
+        try {
+            m_receiver.messageReceived(message);
         }
         finally {
-            IOUtil.closeSilently(in);
-            IOUtil.closeSilently(out);
+            m_oneWayLock.unlock();
         }
     }
 
+    public void handleMessage(HttpServletRequest req, HttpServletResponse resp) throws Exception {
+        // closes the input stream
+        ByteBuffer message = IOUtil.readFully(req.getInputStream(), req.getContentLength());
+        handleMessage(message, resp);
+    }
+
+    /**
+     * Passes a message to the receiver of this endpoint, which streams its reply to the response.
+     * The response is sent in chunks once the reply does not fit in the buffer of the response.
+     * <p>
+     * The response is only closed in case the receiver succeeds, in case it fails the caller should
+     * either send an error, or abort the response if it was committed already.
+     *
+     * @param message the message, from its position to its limit;
+     * @param resp the response to write the reply to.
+     * @throws Exception in case the receiver failed to process the message.
+     */
+    public void handleMessage(ByteBuffer message, HttpServletResponse resp) throws Exception {
+        resp.setStatus(SC_OK);
+        resp.setContentType(MIME_TYPE);
+        OutputStream out = resp.getOutputStream();
+        m_receiver.messageReceived(message, out);
+        out.close();
+    }
+
+    /**
+     * Runs its tasks one at a time, in the order they were submitted, on the threads of another
+     * executor. At most the given number of tasks wait for the running one.
+     */
+    private final class SerialExecutor implements Executor, Runnable {
+
+        private final Executor m_delegate;
+        private final int m_capacity;
+        private final Deque<Runnable> m_tasks = new ArrayDeque<Runnable>();
+        // true while a task of this executor is submitted to or running on the other executor
+        private boolean m_scheduled;
+
+        SerialExecutor(Executor delegate, int capacity) {
+            m_delegate = delegate;
+            m_capacity = capacity;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            if (m_scheduled && m_tasks.size() >= m_capacity) {
+                m_rejectedMessages.incrementAndGet();
+                throw new RejectedExecutionException("Endpoint is overloaded");
+            }
+            m_tasks.add(task);
+            if (!m_scheduled) {
+                try {
+                    m_delegate.execute(this);
+                }
+                catch (RejectedExecutionException e) {
+                    // nothing was scheduled, so this is the only task
+                    m_tasks.clear();
+                    throw e;
+                }
+                m_scheduled = true;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = m_tasks.poll();
+                    if (task == null) {
+                        m_scheduled = false;
+                        return;
+                    }
+                }
+                boolean completed = false;
+                try {
+                    task.run();
+                    completed = true;
+                }
+                finally {
+                    if (!completed) {
+                        // the remaining tasks are run once the next task is submitted
+                        synchronized (this) {
+                            m_scheduled = false;
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
@@ -3,11 +3,24 @@
  */
 package org.inaetics.wiring.admin.https;
 
+import static javax.servlet.http.HttpServletResponse.SC_ACCEPTED;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -18,6 +31,10 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.AbstractHttpConnection;
 import org.inaetics.wiring.WiringEndpointDescription;
 import org.inaetics.wiring.base.AbstractComponentDelegate;
 import org.inaetics.wiring.base.IOUtil;
@@ -25,6 +42,28 @@ import org.inaetics.wiring.endpoint.WiringReceiver;
 
 /**
  * Wiring component that handles all server endpoints.
+ * <p>
+ * Received messages are handed to the executor of their endpoint, and the request is suspended until
+ * the response is written, so the connection threads of the server never wait for a service to
+ * process a message. The executors are bounded per endpoint, so a slow or flooded endpoint only
+ * delays its own messages: once all its threads are busy and its queue is full, further messages
+ * are rejected with status 503.
+ * <p>
+ * Replies are streamed to the response, which is sent in chunks once a reply does not fit in the
+ * buffer of the response. In case a receiver fails after part of its reply was sent, the connection is
+ * closed, so the client sees an incomplete response rather than a truncated one.
+ * <p>
+ * Messages are admitted by a rate limiter per client, and one per client and endpoint. Clients are
+ * identified by the subject of their certificate. Messages beyond the limits are rejected with status
+ * 429, so a single client cannot flood the node.
+ * <p>
+ * Batches of messages for several endpoints, as sent by {@link HttpsMessageBatcher}s, are posted to
+ * the base url. Each message of a batch is admitted and processed as if it was sent on its own, and
+ * the replies are returned as one batch once all messages are processed.
+ * <p>
+ * One-way messages, marked by the query of their url, are acknowledged with status 202 as soon as
+ * their endpoint accepted them, and their replies are discarded. The one-way messages of an endpoint are
+ * processed one at a time, in the order they were received.
  * 
  * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
  */
@@ -39,6 +78,12 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
     private final HttpsAdminConfiguration m_configuration;
 
     private static final String MIME_TYPE = "text/plain;charset=utf-8";
+    private static final String BATCH_MIME_TYPE = "application/octet-stream";
+    private static final String CERT_KEY = "javax.servlet.request.X509Certificate";
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private volatile HttpsRateLimiter m_clientRateLimiter;
+    private volatile HttpsRateLimiter m_clientWireRateLimiter;
 
     public HttpsServerEndpointHandler(WiringAdminFactory factory, HttpsAdminConfiguration configuration) {
         super(factory);
@@ -48,6 +93,10 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
 
     @Override
     protected void startComponentDelegate() {
+        m_clientRateLimiter =
+            new HttpsRateLimiter(m_configuration.getServerClientRate(), m_configuration.getServerClientBurst());
+        m_clientWireRateLimiter =
+            new HttpsRateLimiter(m_configuration.getServerClientWireRate(), m_configuration.getServerClientWireBurst());
         try {
             m_factory.getHttpService().registerServlet(getServletAlias(), new ServerEndpointServlet(), null, null);
         }
@@ -70,15 +119,20 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
      */
     public HttpsServerEndpoint addEndpoint(WiringEndpointDescription endpoint, WiringReceiver receiver) {
 
-        HttpsServerEndpoint serverEndpoint = new HttpsServerEndpoint(endpoint, receiver);
+        HttpsServerEndpoint serverEndpoint = new HttpsServerEndpoint(endpoint, receiver,
+            m_configuration.getServerWireThreads(), m_configuration.getServerWireQueueSize());
+        HttpsServerEndpoint replaced;
 
         m_lock.writeLock().lock();
         try {
-            m_handlers.put(endpoint.getId(), serverEndpoint);
+            replaced = m_handlers.put(endpoint.getId(), serverEndpoint);
         }
         finally {
             m_lock.writeLock().unlock();
         }
+        if (replaced != null) {
+            replaced.close();
+        }
         return serverEndpoint;
     }
 
@@ -92,14 +146,56 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
 
         m_lock.writeLock().lock();
         try {
-            serv = m_handlers.remove(endpoint);
+            serv = m_handlers.remove(endpoint.getId());
         }
         finally {
             m_lock.writeLock().unlock();
         }
+        if (serv != null) {
+            logDebug("closing server endpoint %s: %s", endpoint.getId(), serv.getStatistics());
+            serv.close();
+        }
         return serv;
     }
 
+    /**
+     * @return the number of messages that were rejected because a client exceeded its rate limit.
+     */
+    public long getRateLimitedMessages() {
+        return m_clientRateLimiter.getRejected() + m_clientWireRateLimiter.getRejected();
+    }
+
+    /**
+     * Takes a token from the rate limiters of the client that sent a message to an endpoint.
+     * 
+     * @return 0 if the message is admitted, otherwise the time in nanoseconds until the client may retry.
+     */
+    private long admitMessage(HttpServletRequest req, String endpointId) {
+        HttpsRateLimiter clientRateLimiter = m_clientRateLimiter;
+        HttpsRateLimiter clientWireRateLimiter = m_clientWireRateLimiter;
+        if (!clientRateLimiter.isEnabled() && !clientWireRateLimiter.isEnabled()) {
+            return 0;
+        }
+        String client;
+        X509Certificate[] certificates = (X509Certificate[]) req.getAttribute(CERT_KEY);
+        if (certificates != null && certificates.length > 0) {
+            client = certificates[0].getSubjectX500Principal().getName();
+        }
+        else {
+            // clients without certificate, in case they are not enforced
+            client = req.getRemoteAddr();
+        }
+        long retryAfter = clientRateLimiter.tryAcquire(client);
+        if (retryAfter == 0) {
+            retryAfter = clientWireRateLimiter.tryAcquire(client + "|" + endpointId);
+            if (retryAfter != 0) {
+                // a throttled wire should not use up the budget of the client for its other wires
+                clientRateLimiter.release(client);
+            }
+        }
+        return retryAfter;
+    }
+
     private HttpsServerEndpoint getHandler(String path) {
         m_lock.readLock().lock();
         try {
@@ -176,6 +272,12 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
                 pathInfo = "";
             }
 
+            // a post on the root contains a batch of messages
+            if (pathInfo.equals("") || pathInfo.equals("/")) {
+                dispatchBatch(req, resp);
+                return;
+            }
+
             Matcher matcher = PATH_PATTERN.matcher(pathInfo);
             if (!matcher.matches()) {
                 resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid path: " + pathInfo);
@@ -183,18 +285,206 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
             }
             String path = matcher.group(1);
 
+            // only messages to known endpoints are limited, so unknown ids do not fill the rate limiters
             HttpsServerEndpoint handler = getHandler(path);
-            if (handler != null) {
+            if (handler == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            long retryAfter = admitMessage(req, path);
+            if (retryAfter > 0) {
+                resp.setHeader("Retry-After", Long.toString(TimeUnit.NANOSECONDS.toSeconds(retryAfter) + 1));
+                resp.sendError(SC_TOO_MANY_REQUESTS, "Rate limit exceeded");
+            }
+            else if (HttpsClientEndpoint.ONEWAY_QUERY.equals(req.getQueryString())) {
+                dispatchOneWayMessage(handler, path, req, resp);
+            }
+            else if (handler.getExecutor() != null) {
+                dispatchMessage(handler, path, req, resp);
+            }
+            else {
                 try {
                     handler.handleMessage(req, resp);
                 }
                 catch (Exception e) {
                     logError("Server Endpoint Handler failed: %s", e, path);
-                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    failResponse(resp, getEndPoint());
                 }
             }
-            else {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+
+        /**
+         * Reads a batch of messages and suspends the request until the executors of their endpoints
+         * have processed all of them.
+         */
+        private void dispatchBatch(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+            ByteBuffer body = IOUtil.readFully(req.getInputStream(), req.getContentLength());
+            List<String> endpointIds = new ArrayList<String>();
+            List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+            try {
+                HttpsBatchFrames.decodeRequests(body, endpointIds, messages);
+            }
+            catch (IOException e) {
+                resp.sendError(SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+
+            final BatchResponse batch = new BatchResponse(ContinuationSupport.getContinuation(req), endpointIds.size());
+            batch.suspend(resp);
+
+            for (int i = 0; i < endpointIds.size(); i++) {
+                final int index = i;
+                final String endpointId = endpointIds.get(i);
+                final ByteBuffer message = messages.get(i);
+
+                final HttpsServerEndpoint handler = getHandler(endpointId);
+                if (handler == null) {
+                    batch.reply(index, SC_NOT_FOUND, null);
+                    continue;
+                }
+                if (admitMessage(req, endpointId) > 0) {
+                    batch.reply(index, SC_TOO_MANY_REQUESTS, null);
+                    continue;
+                }
+
+                Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            batch.reply(index, SC_OK, handler.processMessage(message));
+                        }
+                        catch (Exception e) {
+                            logError("Server Endpoint Handler failed: %s", e, endpointId);
+                            batch.reply(index, SC_INTERNAL_SERVER_ERROR, null);
+                        }
+                    }
+                };
+                Executor executor = handler.getExecutor();
+                if (executor == null) {
+                    task.run();
+                    continue;
+                }
+                try {
+                    executor.execute(task);
+                }
+                catch (RejectedExecutionException e) {
+                    logDebug("Server Endpoint %s rejected message: %s", endpointId, e.getMessage());
+                    batch.reply(index, SC_SERVICE_UNAVAILABLE, null);
+                }
+            }
+            batch.dispatched();
+        }
+
+        /**
+         * Reads the message and suspends the request until the executor of the endpoint has processed it.
+         */
+        private void dispatchMessage(final HttpsServerEndpoint handler, final String path, HttpServletRequest req,
+            HttpServletResponse resp) throws IOException {
+
+            final ByteBuffer message = IOUtil.readFully(req.getInputStream(), req.getContentLength());
+            final EndPoint endPoint = getEndPoint();
+            final Continuation continuation = ContinuationSupport.getContinuation(req);
+            // no timeout, the response is always completed once the message is processed
+            continuation.setTimeout(0);
+            continuation.suspend(resp);
+
+            Executor executor = handler.getExecutor();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        HttpServletResponse response = (HttpServletResponse) continuation.getServletResponse();
+                        try {
+                            handler.handleMessage(message, response);
+                        }
+                        catch (Exception e) {
+                            logError("Server Endpoint Handler failed: %s", e, path);
+                            failResponse(response, endPoint);
+                        }
+                        finally {
+                            continuation.complete();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // the endpoint is overloaded, or was removed in the meantime
+                logDebug("Server Endpoint %s rejected message: %s", path, e.getMessage());
+                resp.sendError(SC_SERVICE_UNAVAILABLE, e.getMessage());
+                continuation.complete();
+            }
+        }
+
+        /**
+         * Fails a response with status 500. A response that was committed already cannot get another
+         * status, so its connection is closed instead.
+         */
+        private void failResponse(HttpServletResponse resp, EndPoint endPoint) {
+            if (!resp.isCommitted()) {
+                resp.reset();
+                resp.setStatus(SC_INTERNAL_SERVER_ERROR);
+            }
+            else if (endPoint != null) {
+                try {
+                    endPoint.close();
+                }
+                catch (IOException e) {
+                    // the connection is gone already
+                }
+            }
+        }
+
+        /**
+         * @return the endpoint of the connection the current request was received on, <code>null</code>
+         *         if it is not known. Only available on the thread that received the request.
+         */
+        private EndPoint getEndPoint() {
+            AbstractHttpConnection connection = AbstractHttpConnection.getCurrentConnection();
+            return connection == null ? null : connection.getEndPoint();
+        }
+
+        /**
+         * Reads a one-way message and acknowledges it once the one-way executor of the endpoint accepted
+         * it. Endpoints without executor process the message on this thread, after it is acknowledged.
+         * Either way, the one-way messages of an endpoint are processed one at a time, in the order they
+         * were received, as their senders do not wait for one message to be processed before sending the
+         * next.
+         */
+        private void dispatchOneWayMessage(final HttpsServerEndpoint handler, final String path,
+            HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+            final ByteBuffer message = IOUtil.readFully(req.getInputStream(), req.getContentLength());
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // the sender expects no reply
+                        handler.processOneWayMessage(message);
+                    }
+                    catch (Exception e) {
+                        logError("Server Endpoint Handler failed: %s", e, path);
+                    }
+                }
+            };
+
+            Executor executor = handler.getOneWayExecutor();
+            if (executor != null) {
+                try {
+                    executor.execute(task);
+                }
+                catch (RejectedExecutionException e) {
+                    logDebug("Server Endpoint %s rejected message: %s", path, e.getMessage());
+                    resp.sendError(SC_SERVICE_UNAVAILABLE, e.getMessage());
+                    return;
+                }
+            }
+            resp.setStatus(SC_ACCEPTED);
+            resp.setContentLength(0);
+            resp.flushBuffer();
+            if (executor == null) {
+                task.run();
             }
         }
 
@@ -244,4 +534,64 @@ public final class HttpsServerEndpointHandler extends AbstractComponentDelegate
             }
         }
     }
+
+    /**
+     * Collects the replies to the messages of a batch, and completes the suspended request once all
+     * messages are processed.
+     */
+    private final class BatchResponse {
+
+        private final Continuation m_continuation;
+        private final int[] m_statuses;
+        private final ByteBuffer[] m_replies;
+        // one more than the number of messages, until all messages are dispatched
+        private final AtomicInteger m_pending;
+
+        BatchResponse(Continuation continuation, int size) {
+            m_continuation = continuation;
+            m_statuses = new int[size];
+            m_replies = new ByteBuffer[size];
+            m_pending = new AtomicInteger(size + 1);
+        }
+
+        void suspend(HttpServletResponse resp) {
+            // no timeout, the response is always completed once all messages are processed
+            m_continuation.setTimeout(0);
+            m_continuation.suspend(resp);
+        }
+
+        void reply(int index, int status, ByteBuffer reply) {
+            m_statuses[index] = status;
+            m_replies[index] = reply;
+            countDown();
+        }
+
+        void dispatched() {
+            countDown();
+        }
+
+        private void countDown() {
+            if (m_pending.decrementAndGet() > 0) {
+                return;
+            }
+            HttpServletResponse response = (HttpServletResponse) m_continuation.getServletResponse();
+            ServletOutputStream out = null;
+            try {
+                ByteBuffer body = HttpsBatchFrames.encodeReplies(m_statuses, m_replies);
+                response.setStatus(SC_OK);
+                response.setContentType(BATCH_MIME_TYPE);
+                response.setContentLength(body.remaining());
+                out = response.getOutputStream();
+                IOUtil.write(out, body);
+            }
+            catch (Exception e) {
+                logError("Server Endpoint Handler failed to write batch response", e);
+                response.setStatus(SC_INTERNAL_SERVER_ERROR);
+            }
+            finally {
+                IOUtil.closeSilently(out);
+                m_continuation.complete();
+            }
+        }
+    }
 }
@@ -0,0 +1,79 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+/**
+ * Immutable snapshot of the statistics of the executor of a {@link HttpsServerEndpoint}.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public final class HttpsServerEndpointStatistics {
+
+    private final int m_maxThreads;
+    private final int m_activeThreads;
+    private final int m_queueDepth;
+    private final int m_queueCapacity;
+    private final long m_processedMessages;
+    private final long m_rejectedMessages;
+
+    HttpsServerEndpointStatistics(int maxThreads, int activeThreads, int queueDepth, int queueCapacity,
+        long processedMessages, long rejectedMessages) {
+        m_maxThreads = maxThreads;
+        m_activeThreads = activeThreads;
+        m_queueDepth = queueDepth;
+        m_queueCapacity = queueCapacity;
+        m_processedMessages = processedMessages;
+        m_rejectedMessages = rejectedMessages;
+    }
+
+    /**
+     * @return the maximum number of threads that process messages of the endpoint.
+     */
+    public int getMaxThreads() {
+        return m_maxThreads;
+    }
+
+    /**
+     * @return the number of threads that are currently processing a message.
+     */
+    public int getActiveThreads() {
+        return m_activeThreads;
+    }
+
+    /**
+     * @return the number of received messages that are waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return m_queueDepth;
+    }
+
+    /**
+     * @return the maximum number of received messages that can wait for a thread.
+     */
+    public int getQueueCapacity() {
+        return m_queueCapacity;
+    }
+
+    /**
+     * @return the number of messages that were processed since the endpoint was added.
+     */
+    public long getProcessedMessages() {
+        return m_processedMessages;
+    }
+
+    /**
+     * @return the number of messages that were rejected because all threads were busy and the
+     *         queue was full.
+     */
+    public long getRejectedMessages() {
+        return m_rejectedMessages;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpsServerEndpointStatistics [maxThreads=" + m_maxThreads + ", activeThreads=" + m_activeThreads
+            + ", queueDepth=" + m_queueDepth + ", queueCapacity=" + m_queueCapacity + ", processedMessages="
+            + m_processedMessages + ", rejectedMessages=" + m_rejectedMessages + "]";
+    }
+}
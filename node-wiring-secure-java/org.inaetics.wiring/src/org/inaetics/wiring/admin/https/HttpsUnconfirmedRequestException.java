@@ -0,0 +1,21 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.admin.https;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request was sent completely, but its connection failed before any response arrived. The remote
+ * endpoint may or may not have processed the request, so it is not sent again automatically.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+public class HttpsUnconfirmedRequestException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public HttpsUnconfirmedRequestException(Throwable cause) {
+        super("Connection failed after the request was sent, it may have been processed: " + cause, cause);
+    }
+}
@@ -8,5 +8,9 @@ public interface HttpsWiringEndpointProperties {
 	public static final String BASE = "inaetics.wiring.https.";
 	public static final String VERSION = BASE + "version";
 	public static final String URL = BASE + "url";
+	// "true" if the endpoint accepts pipelined requests on a shared connection
+	public static final String PIPELINING = BASE + "pipelining";
+	// "true" if the node of the endpoint accepts batches of messages on its base url
+	public static final String BATCHING = BASE + "batching";
 
 }
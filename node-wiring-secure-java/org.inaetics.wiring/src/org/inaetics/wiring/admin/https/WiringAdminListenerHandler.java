@@ -43,6 +43,8 @@ public class WiringAdminListenerHandler extends AbstractComponentDelegate {
 		endpoint.setNode(m_configuration.getNode());
 		endpoint.setProtocolName(HttpsAdminConstants.PROTOCOL_NAME);
 		endpoint.setProperty(HttpsWiringEndpointProperties.VERSION, HttpsAdminConstants.PROTOCOL_VERSION);
+		endpoint.setProperty(HttpsWiringEndpointProperties.PIPELINING, Boolean.TRUE.toString());
+		endpoint.setProperty(HttpsWiringEndpointProperties.BATCHING, Boolean.TRUE.toString());
 		
 		try {
 			endpoint.setProperty(HttpsWiringEndpointProperties.URL, new URL(m_configuration.getBaseUrl().toString() + serviceId).toString());
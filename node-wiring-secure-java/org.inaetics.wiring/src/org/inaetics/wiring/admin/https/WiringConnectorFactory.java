@@ -14,25 +14,128 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 
 import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.felix.http.jetty.ConnectorFactory;
 import org.eclipse.jetty.server.Connector;
-import org.eclipse.jetty.server.ssl.SslSocketConnector;
+import org.eclipse.jetty.server.ssl.SslSelectChannelConnector;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.inaetics.truststorage.TrustStorageConfiguration;
+import org.inaetics.truststorage.TrustStorageListener;
 import org.inaetics.truststorage.TrustStorageService;
 
-public class WiringConnectorFactory implements ConnectorFactory {
+/**
+ * Creates the SSL connector of the wiring server.
+ * <p>
+ * The key and trust managers of the connector are called during every TLS handshake, so they serve
+ * the private key, certificate chain and accepted issuers from a pre-decoded snapshot. The snapshot
+ * is replaced as a whole when the key material of the {@link TrustStorageService} changes. The alias
+ * chosen for a handshake carries the version of the snapshot, and the private key and certificate
+ * chain are looked up by that version, so a handshake never sees a key of one version combined with
+ * a certificate of another.
+ */
+public class WiringConnectorFactory implements ConnectorFactory, TrustStorageListener {
+	private static final String KEYPAIR_ALIAS = "keypair";
+	// followed by the version of the key material
+	private static final String INAETICS_ALIAS_PREFIX = "INAETICS:";
+
 	private volatile TrustStorageService m_trustStorageService;
 	private volatile HttpsAdminConfiguration m_configuration;
+	private volatile ServerKeyMaterial m_keyMaterial;
+	// kept for handshakes that chose their alias just before the key material changed
+	private volatile ServerKeyMaterial m_previousKeyMaterial;
 	
 	public WiringConnectorFactory(HttpsAdminConfiguration configuration) {
 		m_configuration = configuration;
 	};
 
+	@Override
+	public void keyMaterialChanged(long version) {
+		// decode the renewed key material now, rather than during the next handshake
+		setKeyMaterial(loadKeyMaterial());
+	}
+
+	/**
+	 * Returns the current key material, decoding it only if the key material version changed.
+	 */
+	private ServerKeyMaterial getKeyMaterial() {
+		ServerKeyMaterial keyMaterial = m_keyMaterial;
+		if (keyMaterial == null || keyMaterial.m_version != m_trustStorageService.getKeyMaterialVersion()) {
+			keyMaterial = loadKeyMaterial();
+			setKeyMaterial(keyMaterial);
+		}
+		return keyMaterial;
+	}
+
+	private synchronized void setKeyMaterial(ServerKeyMaterial keyMaterial) {
+		ServerKeyMaterial current = m_keyMaterial;
+		if (current != null && current.m_version != keyMaterial.m_version) {
+			m_previousKeyMaterial = current;
+		}
+		m_keyMaterial = keyMaterial;
+	}
+
+	/**
+	 * Returns the key material of the version embedded in an alias chosen for a handshake.
+	 * 
+	 * @return the key material, or <code>null</code> if the alias is unknown or its version is no longer available.
+	 */
+	private ServerKeyMaterial getKeyMaterial(String alias) {
+		if (alias == null || !alias.startsWith(INAETICS_ALIAS_PREFIX)) {
+			return null;
+		}
+		long version;
+		try {
+			version = Long.parseLong(alias.substring(INAETICS_ALIAS_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		ServerKeyMaterial keyMaterial = m_keyMaterial;
+		if (keyMaterial != null && keyMaterial.m_version == version) {
+			return keyMaterial;
+		}
+		keyMaterial = m_previousKeyMaterial;
+		if (keyMaterial != null && keyMaterial.m_version == version) {
+			return keyMaterial;
+		}
+		return null;
+	}
+
+	private ServerKeyMaterial loadKeyMaterial() {
+		// read the version first, so a concurrent change always results in another reload
+		long version = m_trustStorageService.getKeyMaterialVersion();
+
+		PrivateKey privateKey = null;
+		X509Certificate[] certificateChain = null;
+		KeyStore keyStore = m_trustStorageService.getKeyStore();
+		if (keyStore != null) {
+			try {
+				Key pk = keyStore.getKey(KEYPAIR_ALIAS, m_trustStorageService.getKeyStoreKeyPassword());
+				if (pk instanceof PrivateKey) {
+					privateKey = (PrivateKey) pk;
+				}
+				Certificate[] certs = keyStore.getCertificateChain(KEYPAIR_ALIAS);
+				if (certs != null && certs.length > 0) {
+					certificateChain = new X509Certificate[] { (X509Certificate) certs[certs.length - 1] };
+				}
+			} catch (UnrecoverableKeyException e) {
+				// do nothing, connection will fail
+			} catch (KeyStoreException e) {
+				// do nothing, connection will fail
+			} catch (NoSuchAlgorithmException e) {
+				// do nothing, connection will fail
+			}
+		}
+
+		X509Certificate rootCaCert = m_trustStorageService.getRootCaCert();
+		X509Certificate[] acceptedIssuers = rootCaCert == null ? new X509Certificate[0] : new X509Certificate[] { rootCaCert };
+
+		return new ServerKeyMaterial(version, privateKey, certificateChain, acceptedIssuers);
+	}
+
 	@Override
 	public Connector createConnector() {
 		SslContextFactory sslContextFactory = new ShortTrustSslContextFactory();
@@ -45,24 +148,34 @@ public class WiringConnectorFactory implements ConnectorFactory {
 		}
 		boolean enforceClientAuth = m_configuration.shouldEenforceClientCertValidation();
 		sslContextFactory.setNeedClientAuth(enforceClientAuth);
-		Connector connector = new SslSocketConnector(sslContextFactory);
+
+		// selector based, so idle keep-alive connections of peers do not occupy a thread each
+		SslSelectChannelConnector connector = new SslSelectChannelConnector(sslContextFactory);
 		int securePort = m_configuration.getSecurePort();
 		connector.setPort(securePort);
+		// every acceptor also runs its own selector, Jetty does not configure these separately
+		connector.setAcceptors(Math.max(1, m_configuration.getServerAcceptors()));
+		connector.setAcceptQueueSize(m_configuration.getServerAcceptQueueSize());
+		connector.setMaxIdleTime(m_configuration.getServerIdleTimeout());
 
 		return connector;
 	}
 
 	private class ShortTrustSslContextFactory extends SslContextFactory {
-		private static final String INAETICS_ALIAS = "INAETICS";
 		private static final String INAETICS_CRYPTO_ALG = "RSA";
+
+		public ShortTrustSslContextFactory() {
+			// allow clients to resume their sessions, avoiding a full handshake on reconnect
+			setSessionCachingEnabled(true);
+			setSslSessionCacheSize(m_configuration.getTlsSessionCacheSize());
+			setSslSessionTimeout(m_configuration.getTlsSessionTimeout());
+		}
 		
 		@Override
 		protected TrustManager[] getTrustManagers(KeyStore arg0, Collection<? extends CRL> arg1) throws Exception {
 			TrustManager[] trustManagers = new TrustManager[] { new X509TrustManager() {
 				public X509Certificate[] getAcceptedIssuers() {
-					X509Certificate cert = m_trustStorageService.getRootCaCert();
-					X509Certificate[] ret = { cert };
-					return ret;
+					return getKeyMaterial().m_acceptedIssuers.clone();
 				}
 
 				public void checkClientTrusted(X509Certificate[] certs, String authType) {
@@ -78,7 +191,7 @@ public class WiringConnectorFactory implements ConnectorFactory {
 
 		@Override
 		protected KeyManager[] getKeyManagers(KeyStore arg0) throws Exception {
-			KeyManager[] keyManagers = new KeyManager[] { new X509KeyManager() {
+			KeyManager[] keyManagers = new KeyManager[] { new X509ExtendedKeyManager() {
 				@Override
 				public String[] getServerAliases(String keyType, Principal[] issuers) {
 					// not (yet) required!
@@ -87,20 +200,8 @@ public class WiringConnectorFactory implements ConnectorFactory {
 
 				@Override
 				public PrivateKey getPrivateKey(String alias) {
-					if (alias.equals(INAETICS_ALIAS)) {
-						try {
-							Key pk = m_trustStorageService.getKeyStore().getKey("keypair",
-									m_trustStorageService.getKeyStoreKeyPassword());
-							return (PrivateKey) pk;
-						} catch (UnrecoverableKeyException e) {
-							// do nothing, connection will fail
-						} catch (KeyStoreException e) {
-							// do nothing, connection will fail
-						} catch (NoSuchAlgorithmException e) {
-							// do nothing, connection will fail
-						}
-					}
-					return null;
+					ServerKeyMaterial keyMaterial = getKeyMaterial(alias);
+					return keyMaterial == null ? null : keyMaterial.m_privateKey;
 				}
 
 				@Override
@@ -111,24 +212,18 @@ public class WiringConnectorFactory implements ConnectorFactory {
 
 				@Override
 				public X509Certificate[] getCertificateChain(String alias) {
-					if (alias.equals(INAETICS_ALIAS)) {
-						try {
-							Certificate[] certs = m_trustStorageService.getKeyStore().getCertificateChain("keypair");
-							if (certs != null && certs.length > 0) {
-								X509Certificate[] ret = { (X509Certificate) certs[certs.length - 1] };
-								return ret;
-							}
-						} catch (KeyStoreException e) {
-							// do nothing, connection will fail.
-						}
+					ServerKeyMaterial keyMaterial = getKeyMaterial(alias);
+					if (keyMaterial == null || keyMaterial.m_certificateChain == null) {
+						return null;
 					}
-					return null;
+					return keyMaterial.m_certificateChain.clone();
 				}
 
 				@Override
 				public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
 					if (keyType.equals(INAETICS_CRYPTO_ALG)) {
-						return INAETICS_ALIAS;
+						// pins the key material of this handshake
+						return INAETICS_ALIAS_PREFIX + getKeyMaterial().m_version;
 					}
 					return null;
 				}
@@ -138,9 +233,31 @@ public class WiringConnectorFactory implements ConnectorFactory {
 					// not (yet)required
 					return null;
 				}
+
+				@Override
+				public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+					// used by the selector based connector
+					return chooseServerAlias(keyType, issuers, null);
+				}
 			} };
 			return keyManagers;
 		}
 	}
 
+	/**
+	 * Immutable snapshot of the decoded key material used by the server.
+	 */
+	private static final class ServerKeyMaterial {
+		private final long m_version;
+		private final PrivateKey m_privateKey;
+		private final X509Certificate[] m_certificateChain;
+		private final X509Certificate[] m_acceptedIssuers;
+
+		ServerKeyMaterial(long version, PrivateKey privateKey, X509Certificate[] certificateChain, X509Certificate[] acceptedIssuers) {
+			m_version = version;
+			m_privateKey = privateKey;
+			m_certificateChain = certificateChain;
+			m_acceptedIssuers = acceptedIssuers;
+		}
+	}
 }
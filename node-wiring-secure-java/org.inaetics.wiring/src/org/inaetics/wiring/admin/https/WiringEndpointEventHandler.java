@@ -41,13 +41,16 @@ public class WiringEndpointEventHandler extends AbstractComponentDelegate implem
 	}
 
 	private void endpointAdded(WiringEndpointDescription endpoint) {
-		m_importedEndpoints.add(endpoint);
-		m_clientFactory.addEndpoint(endpoint);
+		// the client is referenced once per discovered endpoint, however often it is announced
+		if (m_importedEndpoints.add(endpoint)) {
+			m_clientFactory.addEndpoint(endpoint);
+		}
 	}
 
 	private void endpointRemoved(WiringEndpointDescription endpoint) {
-		m_importedEndpoints.remove(endpoint);
-		m_clientFactory.removeEndpoint(endpoint);
+		if (m_importedEndpoints.remove(endpoint)) {
+			m_clientFactory.removeEndpoint(endpoint);
+		}
 	}
 	
 }
@@ -3,6 +3,12 @@
  */
 package org.inaetics.wiring.admin.https;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
 import org.inaetics.wiring.WiringEndpointDescription;
 import org.inaetics.wiring.endpoint.WiringSender;
 
@@ -25,9 +31,47 @@ public final class WiringSenderImpl implements WiringSender {
 
 	@Override
 	public String sendMessage(String message) throws Exception {
+		return decode(sendMessage(encode(message)));
+	}
+
+	@Override
+	public CompletableFuture<String> sendMessageAsync(String message) {
+		return sendMessageAsync(encode(message)).thenApply(new Function<ByteBuffer, String>() {
+			@Override
+			public String apply(ByteBuffer response) {
+				return decode(response);
+			}
+		});
+	}
+
+	@Override
+	public ByteBuffer sendMessage(ByteBuffer message) throws Exception {
 		return m_endpointFactory.sendMessage(m_endpoint.getId(), message);
 	}
 
+	@Override
+	public CompletableFuture<ByteBuffer> sendMessageAsync(ByteBuffer message) {
+		return m_endpointFactory.sendMessageAsync(m_endpoint.getId(), message);
+	}
+
+	@Override
+	public InputStream sendMessageStreamed(ByteBuffer message) throws Exception {
+		return m_endpointFactory.sendMessageStreamed(m_endpoint.getId(), message);
+	}
+
+	@Override
+	public CompletableFuture<Void> sendOneWayMessage(ByteBuffer message) {
+		return m_endpointFactory.sendOneWayMessage(m_endpoint.getId(), message);
+	}
+
+	private static ByteBuffer encode(String message) {
+		return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decode(ByteBuffer message) {
+		return new String(message.array(), message.arrayOffset() + message.position(), message.remaining(), StandardCharsets.UTF_8);
+	}
+
 	@Override
 	public String toString() {
 		return "WiringSenderImpl [endpointId=" + m_endpoint.getId() + "]";
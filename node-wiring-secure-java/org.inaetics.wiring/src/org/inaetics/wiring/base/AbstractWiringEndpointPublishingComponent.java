@@ -212,6 +212,58 @@ public abstract class AbstractWiringEndpointPublishingComponent extends Abstract
         });
     }
 
+    /**
+     * Call endpoint removed and endpoint added on all registered listeners for a set of changes at once. The changes
+     * are handled in a single task, removals first, so a modified Wiring Endpoint Description can be passed as both
+     * removed and added.
+     * 
+     * @param removed The Wiring Endpoint Descriptions that were removed
+     * @param added The Wiring Endpoint Descriptions that were added
+     */
+    public final void endpointsChanged(final Collection<WiringEndpointDescription> removed,
+        final Collection<WiringEndpointDescription> added) {
+
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+
+        executeTask(new Runnable() {
+
+            @Override
+            public void run() {
+                logDebug("Changing Wiring Endpoints: %s removed, %s added", removed.size(), added.size());
+                for (WiringEndpointDescription endpoint : removed) {
+                    if (!m_endpoints.remove(endpoint)) {
+                        logWarning("Trying to remove unknown Wiring Endpoint Description: %s", endpoint);
+                        continue;
+                    }
+                    for (AbstractListenerHandler<?> handler : m_listeners.values()) {
+                        try {
+                            handler.endpointRemoved(endpoint);
+                        }
+                        catch (Exception e) {
+                            logWarning("Caught exception while invoking Wiring Endpoint removed on %s", e, handler.getReference());
+                        }
+                    }
+                }
+                for (WiringEndpointDescription endpoint : added) {
+                    if (!m_endpoints.add(endpoint)) {
+                        logWarning("Trying to add duplicate Wiring Endpoint Description: %s", endpoint);
+                        continue;
+                    }
+                    for (AbstractListenerHandler<?> handler : m_listeners.values()) {
+                        try {
+                            handler.endpointAdded(endpoint);
+                        }
+                        catch (Exception e) {
+                            logWarning("Caught exception while invoking Wiring Endpoint added on %s", e, handler.getReference());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Abstract handler for listeners that encapsulates filter parsing, caching and matching
      * <p>
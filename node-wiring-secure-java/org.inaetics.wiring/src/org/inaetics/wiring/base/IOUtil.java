@@ -8,15 +8,21 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author <a href="mailto:amdatu-developers@amdatu.org">Amdatu Project Team</a>
  */
 public final class IOUtil {
 
+    // the expected length is announced by the sender, so it is not trusted with larger allocations up front
+    private static final int MAX_INITIAL_BUFFER_SIZE = 64 * 1024;
+
     public static void closeSilently(Closeable resource) {
         if (resource != null) {
             try {
@@ -48,5 +54,60 @@ public final class IOUtil {
         } else {        
             return null;
         }
-    }    
+    }
+
+    /**
+     * Reads the stream until its end, into a single buffer.
+     * 
+     * @param is the stream to read, is closed afterwards;
+     * @param expectedLength the number of bytes expected, or -1 if unknown.
+     * @return a buffer holding the bytes read, backed by an array.
+     */
+    public static ByteBuffer readFully(InputStream is, int expectedLength) throws IOException {
+        byte[] buffer = new byte[expectedLength > 0 ? Math.min(expectedLength, MAX_INITIAL_BUFFER_SIZE) : 1024];
+        int count = 0;
+        try {
+            int n;
+            while (true) {
+                if (count == buffer.length) {
+                    // probe for the end of the stream first, so a full buffer is not copied for nothing
+                    if ((n = is.read()) == -1) {
+                        break;
+                    }
+                    int length = buffer.length * 2;
+                    if (count < expectedLength && length > expectedLength) {
+                        // grow to exactly the expected length, which is most likely the actual one
+                        length = expectedLength;
+                    }
+                    buffer = Arrays.copyOf(buffer, length);
+                    buffer[count++] = (byte) n;
+                }
+                if ((n = is.read(buffer, count, buffer.length - count)) == -1) {
+                    break;
+                }
+                count += n;
+            }
+        }
+        finally {
+            is.close();
+        }
+        return ByteBuffer.wrap(buffer, 0, count);
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a stream, without changing the buffer's position.
+     * 
+     * @param os the stream to write to;
+     * @param buffer the buffer to write.
+     */
+    public static void write(OutputStream os, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            os.write(bytes);
+        }
+    }
 }
@@ -5,8 +5,12 @@ package org.inaetics.wiring.discovery;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 import org.inaetics.wiring.WiringEndpointDescription;
 import org.inaetics.wiring.WiringEndpointEvent;
@@ -26,7 +30,7 @@ import org.inaetics.wiring.discovery.etcd.EtcdDiscoveryConfiguration;
 public abstract class AbstractDiscovery extends AbstractWiringEndpointPublishingComponent implements WiringEndpointEventListener {
 
     private final EtcdDiscoveryConfiguration m_configuration;
-    private final ConcurrentHashMap<String, WiringEndpointDescription> m_endpoints = new ConcurrentHashMap<String, WiringEndpointDescription>();
+    private final Map<String, DiscoveredEndpoint> m_endpoints = new HashMap<String, DiscoveredEndpoint>();
 
 	public AbstractDiscovery(String name, EtcdDiscoveryConfiguration configuration) {
         super("discovery", name);
@@ -73,30 +77,91 @@ public abstract class AbstractDiscovery extends AbstractWiringEndpointPublishing
     }
  
     /**
-     * Set all discovered remote endpoints and invoke relevant listeners.
+     * Set all discovered remote endpoints and invoke relevant listeners.<br/><br/>
+     * 
+     * The endpoints are compared with the known ones by id and by a fingerprint of their properties, so a resync
+     * takes linear time and also notices endpoints that changed. All changes are passed to the listeners at once.
      * 
      * @param newEndpoints The Wiring Endpoint Description
      */
     protected final void setDiscoveredEndpoints(final List<WiringEndpointDescription> newEndpoints) {
 
-        // first remove old urls
-        List<WiringEndpointDescription> toRemove = new ArrayList<>();
-        for (WiringEndpointDescription oldEndpoint : m_endpoints.values()) {
-            if (!newEndpoints.contains(oldEndpoint)) {
-                toRemove.add(oldEndpoint);
+        Map<String, WiringEndpointDescription> discovered = new HashMap<String, WiringEndpointDescription>(newEndpoints.size() * 2);
+        for (WiringEndpointDescription newEndpoint : newEndpoints) {
+            if (!isLocalEndpoint(newEndpoint)) {
+                discovered.put(newEndpoint.getId(), newEndpoint);
             }
         }
-        for (WiringEndpointDescription removedEndpoint : toRemove) {
-        	removeDiscoveredEndpoint(removedEndpoint);
+
+        List<WiringEndpointDescription> removed = new ArrayList<WiringEndpointDescription>();
+        List<WiringEndpointDescription> added = new ArrayList<WiringEndpointDescription>();
+        synchronized (m_endpoints) {
+            // first remove old endpoints
+            Iterator<DiscoveredEndpoint> iterator = m_endpoints.values().iterator();
+            while (iterator.hasNext()) {
+                WiringEndpointDescription oldEndpoint = iterator.next().m_endpoint;
+                if (!discovered.containsKey(oldEndpoint.getId())) {
+                    iterator.remove();
+                    removed.add(oldEndpoint);
+                }
+            }
+            // add missing and modified endpoints
+            for (WiringEndpointDescription newEndpoint : discovered.values()) {
+                putDiscoveredEndpoint(newEndpoint, removed, added);
+            }
+            if (!removed.isEmpty() || !added.isEmpty()) {
+                logInfo("Discovered remote endpoints changed: %s removed or modified, %s added or modified", removed.size(), added.size());
+                endpointsChanged(removed, added);
+            }
         }
-        // add missing urls
-        Collection<WiringEndpointDescription> oldEndpoints = m_endpoints.values();
-        for (WiringEndpointDescription newEndpoint : newEndpoints) {
-            if (!oldEndpoints.contains(newEndpoint)) {
-                addDiscoveredEndpoint(newEndpoint);
+    }
+
+    /**
+     * Apply a set of changes to the discovered remote endpoints at once and invoke relevant listeners. Concrete
+     * implementations can call this method instead of {@link #addDiscoveredEndpoint(WiringEndpointDescription)} and
+     * {@link #removeDiscoveredEndpoint(WiringEndpointDescription)} for changes they collected.
+     * 
+     * @param changed The Wiring Endpoint Descriptions that are new or modified
+     * @param removed The Wiring Endpoint Descriptions that disappeared, unknown ones are ignored
+     */
+    protected final void changeDiscoveredEndpoints(final Collection<WiringEndpointDescription> changed,
+        final Collection<WiringEndpointDescription> removed) {
+
+        List<WiringEndpointDescription> removedEndpoints = new ArrayList<WiringEndpointDescription>();
+        List<WiringEndpointDescription> addedEndpoints = new ArrayList<WiringEndpointDescription>();
+        synchronized (m_endpoints) {
+            for (WiringEndpointDescription endpoint : removed) {
+                DiscoveredEndpoint oldEndpoint = isLocalEndpoint(endpoint) ? null : m_endpoints.remove(endpoint.getId());
+                if (oldEndpoint != null) {
+                    removedEndpoints.add(oldEndpoint.m_endpoint);
+                }
+            }
+            for (WiringEndpointDescription endpoint : changed) {
+                if (!isLocalEndpoint(endpoint)) {
+                    putDiscoveredEndpoint(endpoint, removedEndpoints, addedEndpoints);
+                }
+            }
+            if (!removedEndpoints.isEmpty() || !addedEndpoints.isEmpty()) {
+                logInfo("Discovered remote endpoints changed: %s removed or modified, %s added or modified", removedEndpoints.size(), addedEndpoints.size());
+                endpointsChanged(removedEndpoints, addedEndpoints);
             }
         }
+    }
+
+    /**
+     * Returns all currently discovered remote endpoints.
+     * 
+     * @return a copy of the discovered Wiring Endpoint Descriptions
+     */
+    protected final List<WiringEndpointDescription> getDiscoveredEndpoints() {
 
+        synchronized (m_endpoints) {
+            List<WiringEndpointDescription> endpoints = new ArrayList<WiringEndpointDescription>(m_endpoints.size());
+            for (DiscoveredEndpoint endpoint : m_endpoints.values()) {
+                endpoints.add(endpoint.m_endpoint);
+            }
+            return endpoints;
+        }
     }
 
     /**
@@ -110,21 +175,15 @@ public abstract class AbstractDiscovery extends AbstractWiringEndpointPublishing
     	if (isLocalEndpoint(endpoint)) {
     		return;
     	}
-    	
-    	// check if sth as changed
-    	WiringEndpointDescription oldEndpoint = m_endpoints.put(endpoint.getId(), endpoint);
-    	if (oldEndpoint != null && oldEndpoint.equals(endpoint)) {
-    		return;
-    	}
-    	
-    	executeTask(new Runnable() {
 
-            @Override
-            public void run() {
-                logInfo("Adding remote endpoint: %s", endpoint);
-                endpointAdded(endpoint);
+        List<WiringEndpointDescription> removed = new ArrayList<WiringEndpointDescription>(1);
+        List<WiringEndpointDescription> added = new ArrayList<WiringEndpointDescription>(1);
+        synchronized (m_endpoints) {
+            if (putDiscoveredEndpoint(endpoint, removed, added)) {
+                logInfo("%s remote endpoint: %s", removed.isEmpty() ? "Adding" : "Modifying", endpoint);
+                endpointsChanged(removed, added);
             }
-        });
+        }
     }
 
     /**
@@ -139,16 +198,62 @@ public abstract class AbstractDiscovery extends AbstractWiringEndpointPublishing
     		return;
     	}
 
-    	m_endpoints.remove(endpoint.getId());
-    	
-    	executeTask(new Runnable() {
+        synchronized (m_endpoints) {
+            DiscoveredEndpoint oldEndpoint = m_endpoints.remove(endpoint.getId());
+            if (oldEndpoint != null) {
+                logInfo("Removed remote endpoint: %s", oldEndpoint.m_endpoint);
+                endpointsChanged(Collections.singletonList(oldEndpoint.m_endpoint), Collections.<WiringEndpointDescription> emptyList());
+            }
+        }
+    }
 
-            @Override
-            public void run() {
-                logInfo("Removed remote endpoint: %s", endpoint);
-                endpointRemoved(endpoint);
+    /**
+     * Unregister all previously discovered remote wiring endpoints of a node and invoke relevant listeners. Concrete
+     * implementations must call this method when the registration of a node disappears as a whole.
+     * 
+     * @param zone The zone of the node
+     * @param node The node
+     */
+    protected final void removeDiscoveredNode(final String zone, final String node) {
+
+        List<WiringEndpointDescription> removed = new ArrayList<WiringEndpointDescription>();
+        synchronized (m_endpoints) {
+            Iterator<DiscoveredEndpoint> iterator = m_endpoints.values().iterator();
+            while (iterator.hasNext()) {
+                DiscoveredEndpoint oldEndpoint = iterator.next();
+                if (Objects.equals(zone, oldEndpoint.m_zone) && Objects.equals(node, oldEndpoint.m_node)) {
+                    iterator.remove();
+                    removed.add(oldEndpoint.m_endpoint);
+                }
+            }
+            if (!removed.isEmpty()) {
+                logInfo("Removed %s remote endpoint(s) of node %s in zone %s", removed.size(), node, zone);
+                endpointsChanged(removed, Collections.<WiringEndpointDescription> emptyList());
             }
-        });
+        }
+    }
+
+    /**
+     * Stores a discovered endpoint, and collects the changes it causes. Must be called while holding the lock on
+     * the discovered endpoints, so the changes reach the listeners in the same order.
+     * 
+     * @return <code>true</code> if the endpoint is new or modified, <code>false</code> if it is known already.
+     */
+    private boolean putDiscoveredEndpoint(WiringEndpointDescription endpoint, List<WiringEndpointDescription> removed,
+        List<WiringEndpointDescription> added) {
+
+        DiscoveredEndpoint newEndpoint = new DiscoveredEndpoint(endpoint);
+        DiscoveredEndpoint oldEndpoint = m_endpoints.get(endpoint.getId());
+        if (oldEndpoint != null && oldEndpoint.isSameAs(newEndpoint)) {
+            return false;
+        }
+        m_endpoints.put(endpoint.getId(), newEndpoint);
+        if (oldEndpoint != null) {
+            // listeners only know about additions and removals, a modification is passed as both
+            removed.add(oldEndpoint.m_endpoint);
+        }
+        added.add(endpoint);
+        return true;
     }
 
     private boolean isLocalEndpoint(WiringEndpointDescription endpointDescription) {
@@ -183,4 +288,36 @@ public abstract class AbstractDiscovery extends AbstractWiringEndpointPublishing
      */
     protected abstract void removePublishedEndpoint(WiringEndpointDescription endpoint);
 
+    /**
+     * A discovered endpoint with the fingerprint of its properties, which is computed once so comparing it with a
+     * rediscovered endpoint is cheap in the common case that it differs or is the same instance.
+     */
+    private static final class DiscoveredEndpoint {
+
+        private final WiringEndpointDescription m_endpoint;
+        private final String m_zone;
+        private final String m_node;
+        private final String m_protocolName;
+        private final Map<String, String> m_properties;
+        private final int m_fingerprint;
+
+        DiscoveredEndpoint(WiringEndpointDescription endpoint) {
+            m_endpoint = endpoint;
+            m_zone = endpoint.getZone();
+            m_node = endpoint.getNode();
+            m_protocolName = endpoint.getProtocolName();
+            // copied, as the properties of a description can be changed afterwards
+            m_properties = new HashMap<String, String>(endpoint.getProperties());
+            m_fingerprint = Objects.hash(m_zone, m_node, m_protocolName, m_properties);
+        }
+
+        boolean isSameAs(DiscoveredEndpoint other) {
+            return m_fingerprint == other.m_fingerprint
+                && Objects.equals(m_zone, other.m_zone)
+                && Objects.equals(m_node, other.m_node)
+                && Objects.equals(m_protocolName, other.m_protocolName)
+                && m_properties.equals(other.m_properties);
+        }
+    }
+
 }
@@ -3,11 +3,18 @@
  */
 package org.inaetics.wiring.discovery.etcd;
 
+import static org.inaetics.wiring.base.ServiceUtil.getConfigBoolValue;
+import static org.inaetics.wiring.base.ServiceUtil.getConfigIntValue;
 import static org.inaetics.wiring.base.ServiceUtil.getConfigStringValue;
 import static org.inaetics.wiring.discovery.DiscoveryUtil.createNodeListenerServiceProperties;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
 
 import org.apache.felix.dm.Component;
@@ -32,6 +39,21 @@ public class Activator extends DependencyActivatorBase implements EtcdDiscoveryC
 
     public static final String CONFIG_CONNECTURL_KEY = CONFIG_PID + ".connecturl";
     public static final String CONFIG_ROOTPATH_KEY = CONFIG_PID + ".rootpath";
+    public static final String CONFIG_NODEHEARTBEAT_KEY = CONFIG_PID + ".nodeheartbeat";
+    public static final String CONFIG_SNAPSHOTFILE_KEY = CONFIG_PID + ".snapshotfile";
+    public static final String CONFIG_SCOPE_KEY = CONFIG_PID + ".scope";
+    public static final String CONFIG_ZONES_KEY = CONFIG_PID + ".zones";
+    public static final String CONFIG_COALESCEWINDOW_KEY = CONFIG_PID + ".coalescewindow";
+
+    /** Discovers endpoints in all zones. */
+    public static final String SCOPE_ALL = "all";
+    /** Discovers endpoints in the zone of the node only. */
+    public static final String SCOPE_ZONE = "zone";
+    /** Discovers endpoints in the zones listed in {@link #CONFIG_ZONES_KEY}, separated by commas. */
+    public static final String SCOPE_ZONES = "zones";
+
+    private static final String DEFAULT_SNAPSHOTFILE_NAME = "discovery.snapshot";
+    private static final int DEFAULT_COALESCEWINDOW = 200;
 
     private volatile BundleContext m_context;
     private volatile DependencyManager m_manager;
@@ -44,6 +66,10 @@ public class Activator extends DependencyActivatorBase implements EtcdDiscoveryC
 
     private volatile String m_connectUrl;
     private volatile String m_rootPath;
+    private volatile boolean m_nodeHeartbeat;
+    private volatile String m_snapshotFile;
+    private volatile List<String> m_discoveryZones;
+    private volatile int m_coalesceWindow;
     
     @Override
     public void init(BundleContext context, DependencyManager manager) throws Exception {
@@ -56,11 +82,19 @@ public class Activator extends DependencyActivatorBase implements EtcdDiscoveryC
         
         String connectUrl = getConfiguredConnectUrl(null);
         String rootPath = getConfiguredRootPath(null);
+        boolean nodeHeartbeat = getConfiguredNodeHeartbeat(null);
+        String snapshotFile = getConfiguredSnapshotFile(null);
+        List<String> discoveryZones = getConfiguredDiscoveryZones(null, zone);
+        int coalesceWindow = getConfiguredCoalesceWindow(null);
         
         m_zone = zone;
         m_node = node;
         m_connectUrl = connectUrl;
         m_rootPath = rootPath;
+        m_nodeHeartbeat = nodeHeartbeat;
+        m_snapshotFile = snapshotFile;
+        m_discoveryZones = discoveryZones;
+        m_coalesceWindow = coalesceWindow;
 
         if (!"".equals(m_connectUrl)) {
             registerDiscoveryService();
@@ -83,15 +117,24 @@ public class Activator extends DependencyActivatorBase implements EtcdDiscoveryC
             String node = getConfiguredNode(properties);
             String connectUrl = getConfiguredConnectUrl(properties);
             String rootPath = getConfiguredRootPath(properties);
-            
+            boolean nodeHeartbeat = getConfiguredNodeHeartbeat(properties);
+            String snapshotFile = getConfiguredSnapshotFile(properties);
+            List<String> discoveryZones = getConfiguredDiscoveryZones(properties, zone);
+            int coalesceWindow = getConfiguredCoalesceWindow(properties);
 
             if (!zone.equals(m_zone) || !node.equals(m_node)
-            		|| !m_connectUrl.equals(connectUrl) || !m_rootPath.equals(rootPath)) {
+            		|| !m_connectUrl.equals(connectUrl) || !m_rootPath.equals(rootPath)
+            		|| m_nodeHeartbeat != nodeHeartbeat || !m_snapshotFile.equals(snapshotFile)
+            		|| !Objects.equals(m_discoveryZones, discoveryZones) || m_coalesceWindow != coalesceWindow) {
 
             	m_zone = zone;
             	m_node = node;
 		        m_connectUrl = connectUrl;
 	            m_rootPath = rootPath;
+	            m_nodeHeartbeat = nodeHeartbeat;
+	            m_snapshotFile = snapshotFile;
+	            m_discoveryZones = discoveryZones;
+	            m_coalesceWindow = coalesceWindow;
                 
 	            unregisterDiscoveryService();
 	            
@@ -178,6 +221,44 @@ public class Activator extends DependencyActivatorBase implements EtcdDiscoveryC
     private String getConfiguredRootPath(Dictionary<String, ?> properties) throws ConfigurationException {
         return getConfigStringValue(m_context, CONFIG_ROOTPATH_KEY, properties, "/");
     }
+
+    private boolean getConfiguredNodeHeartbeat(Dictionary<String, ?> properties) throws ConfigurationException {
+        // opt-in, as nodes that do not know node heartbeats fail to parse the events of a node directory
+        return getConfigBoolValue(m_context, CONFIG_NODEHEARTBEAT_KEY, properties, false);
+    }
+
+    private String getConfiguredSnapshotFile(Dictionary<String, ?> properties) throws ConfigurationException {
+        // by default the snapshot is kept in the data area of the bundle, if the framework provides one
+        File dataFile = m_context.getDataFile(DEFAULT_SNAPSHOTFILE_NAME);
+        return getConfigStringValue(m_context, CONFIG_SNAPSHOTFILE_KEY, properties, dataFile == null ? "" : dataFile.getPath());
+    }
+
+    private List<String> getConfiguredDiscoveryZones(Dictionary<String, ?> properties, String zone) throws ConfigurationException {
+        String scope = getConfigStringValue(m_context, CONFIG_SCOPE_KEY, properties, SCOPE_ALL).trim();
+        switch (scope) {
+            case SCOPE_ALL:
+                return null;
+            case SCOPE_ZONE:
+                return Collections.singletonList(zone);
+            case SCOPE_ZONES:
+                List<String> zones = new ArrayList<String>();
+                for (String configuredZone : getConfigStringValue(m_context, CONFIG_ZONES_KEY, properties, "").split(",")) {
+                    if (!"".equals(configuredZone.trim()) && !zones.contains(configuredZone.trim())) {
+                        zones.add(configuredZone.trim());
+                    }
+                }
+                if (zones.isEmpty()) {
+                    throw new ConfigurationException(CONFIG_ZONES_KEY, "no zones configured");
+                }
+                return zones;
+            default:
+                throw new ConfigurationException(CONFIG_SCOPE_KEY, "unknown scope " + scope);
+        }
+    }
+
+    private int getConfiguredCoalesceWindow(Dictionary<String, ?> properties) throws ConfigurationException {
+        return Math.max(0, getConfigIntValue(m_context, CONFIG_COALESCEWINDOW_KEY, properties, DEFAULT_COALESCEWINDOW));
+    }
     
     @Override
     public String getConnectUrl() {
@@ -189,6 +270,26 @@ public class Activator extends DependencyActivatorBase implements EtcdDiscoveryC
         return m_rootPath;
     }
 
+    @Override
+    public boolean isNodeHeartbeat() {
+        return m_nodeHeartbeat;
+    }
+
+    @Override
+    public String getSnapshotFile() {
+        return m_snapshotFile;
+    }
+
+    @Override
+    public List<String> getDiscoveryZones() {
+        return m_discoveryZones;
+    }
+
+    @Override
+    public int getCoalesceWindow() {
+        return m_coalesceWindow;
+    }
+
 	@Override
 	public String getZone() {
 		return m_zone;
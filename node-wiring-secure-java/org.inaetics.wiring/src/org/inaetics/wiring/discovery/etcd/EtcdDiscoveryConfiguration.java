@@ -3,6 +3,8 @@
  */
 package org.inaetics.wiring.discovery.etcd;
 
+import java.util.List;
+
 import org.inaetics.wiring.discovery.DiscoveryConfiguration;
 
 /**
@@ -25,4 +27,36 @@ public interface EtcdDiscoveryConfiguration extends DiscoveryConfiguration {
      * @return the root path
      */
     public String getRootPath();
+
+    /**
+     * returns whether the node registers its endpoints beneath a single node directory with a time to live, which is
+     * refreshed periodically, instead of refreshing each endpoint. Only nodes that handle the events of node
+     * directories can discover such endpoints, so this is enabled after all nodes of the cluster have been upgraded.
+     * 
+     * @return <code>true</code> if the node directory is refreshed, <code>false</code> by default
+     */
+    public boolean isNodeHeartbeat();
+
+    /**
+     * returns the file the discovered endpoints are stored in, so they are available right after a restart
+     * 
+     * @return the path of the snapshot file, or an empty string to not keep a snapshot
+     */
+    public String getSnapshotFile();
+
+    /**
+     * returns the zones in which endpoints are discovered, so a node in a large deployment only lists and watches
+     * the zones it wires with
+     * 
+     * @return the zones, or <code>null</code> to discover endpoints in all zones
+     */
+    public List<String> getDiscoveryZones();
+
+    /**
+     * returns the time during which watched changes are collected, so that repeated changes of an endpoint reach
+     * the listeners once
+     * 
+     * @return the window in milliseconds, 0 to pass each change on right away
+     */
+    public int getCoalesceWindow();
 }
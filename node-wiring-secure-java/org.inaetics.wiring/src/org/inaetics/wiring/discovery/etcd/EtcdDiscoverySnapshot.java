@@ -0,0 +1,165 @@
+/**
+ * Licensed under Apache License v2. See LICENSE for more information.
+ */
+package org.inaetics.wiring.discovery.etcd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.inaetics.wiring.WiringEndpointDescription;
+
+/**
+ * Local copy of the endpoints discovered last, with the etcd index they were discovered at. A node reads it on
+ * start, so the endpoints are available before etcd has listed them, or while etcd cannot be reached.
+ * <p>
+ * The file is replaced as a whole, so a node that stops while writing it keeps the previous snapshot.
+ *
+ * @author <a href="mailto:contact@inaetics.org">Inaetics Project Secure Wiring Team</a>
+ */
+final class EtcdDiscoverySnapshot {
+
+    private static final int FORMAT_VERSION = 1;
+    // the smallest size of an endpoint and of a property in the file, four and two strings that are null or empty
+    private static final int MIN_ENDPOINT_SIZE = 4 * 4 + 4;
+    private static final int MIN_PROPERTY_SIZE = 2 * 4;
+
+    private final long m_index;
+    private final List<WiringEndpointDescription> m_endpoints;
+
+    private EtcdDiscoverySnapshot(long index, List<WiringEndpointDescription> endpoints) {
+        m_index = index;
+        m_endpoints = endpoints;
+    }
+
+    /**
+     * @return the etcd index the endpoints were discovered at.
+     */
+    long getIndex() {
+        return m_index;
+    }
+
+    /**
+     * @return the discovered endpoints.
+     */
+    List<WiringEndpointDescription> getEndpoints() {
+        return m_endpoints;
+    }
+
+    /**
+     * @param file the snapshot file.
+     * @return the snapshot, or <code>null</code> if there is none.
+     * @throws IOException in case the file could not be read or is invalid.
+     */
+    static EtcdDiscoverySnapshot read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        // counts and lengths are checked against the size of the file, so a corrupt file cannot exhaust the memory
+        long size = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            long index = in.readLong();
+            int count = readCount(in, size / MIN_ENDPOINT_SIZE, "endpoint count");
+            List<WiringEndpointDescription> endpoints = new ArrayList<WiringEndpointDescription>();
+            for (int i = 0; i < count; i++) {
+                WiringEndpointDescription endpoint = new WiringEndpointDescription();
+                endpoint.setId(readString(in, size));
+                endpoint.setZone(readString(in, size));
+                endpoint.setNode(readString(in, size));
+                endpoint.setProtocolName(readString(in, size));
+                int properties = readCount(in, size / MIN_PROPERTY_SIZE, "property count");
+                for (int j = 0; j < properties; j++) {
+                    endpoint.setProperty(readString(in, size), readString(in, size));
+                }
+                endpoints.add(endpoint);
+            }
+            return new EtcdDiscoverySnapshot(index, endpoints);
+        }
+    }
+
+    /**
+     * @param file the snapshot file;
+     * @param index the etcd index the endpoints were discovered at;
+     * @param endpoints the discovered endpoints.
+     * @throws IOException in case the file could not be written.
+     */
+    static void write(File file, long index, Collection<WiringEndpointDescription> endpoints) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(index);
+            out.writeInt(endpoints.size());
+            for (WiringEndpointDescription endpoint : endpoints) {
+                writeString(out, endpoint.getId());
+                writeString(out, endpoint.getZone());
+                writeString(out, endpoint.getNode());
+                writeString(out, endpoint.getProtocolName());
+                Map<String, String> properties = endpoint.getProperties();
+                out.writeInt(properties.size());
+                for (Entry<String, String> property : properties.entrySet()) {
+                    writeString(out, property.getKey());
+                    writeString(out, property.getValue());
+                }
+            }
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int readCount(DataInputStream in, long max, String name) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Invalid snapshot " + name + ": " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in, long size) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > size) {
+            throw new IOException("Invalid snapshot string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
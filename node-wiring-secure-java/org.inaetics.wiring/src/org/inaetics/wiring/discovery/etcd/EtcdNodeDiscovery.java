@@ -3,22 +3,29 @@
  */
 package org.inaetics.wiring.discovery.etcd;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import mousio.client.promises.ResponsePromise;
 import mousio.client.promises.ResponsePromise.IsSimplePromiseResponseHandler;
 import mousio.etcd4j.EtcdClient;
+import mousio.etcd4j.requests.EtcdKeyPutRequest;
 import mousio.etcd4j.responses.EtcdException;
 import mousio.etcd4j.responses.EtcdKeyAction;
 import mousio.etcd4j.responses.EtcdKeysResponse;
@@ -44,13 +51,26 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
     private static final String PROP_SEP = "\n";
     private static final String PROP_ASSIGN = "=";
 
+    private static final int SNAPSHOT_DELAY = 5;
+    private static final int ETCD_KEY_NOT_FOUND = 100;
+
     private final EtcdDiscoveryConfiguration m_configuration;
 
     private volatile ScheduledExecutorService m_executor;
-    private volatile ResponseListener m_responseListener;
+    private final AtomicInteger m_watchGeneration = new AtomicInteger();
 
     private volatile EtcdRegistrationUpdater m_updater;
     private volatile EtcdClient m_etcd;
+
+    private volatile File m_snapshotFile;
+    private volatile boolean m_provisional;
+    private volatile long m_etcdIndex;
+    private final AtomicBoolean m_snapshotScheduled = new AtomicBoolean();
+
+    private volatile int m_coalesceWindow;
+    private final Object m_pendingLock = new Object();
+    private Map<String, WiringEndpointDescription> m_pendingChanged = new LinkedHashMap<String, WiringEndpointDescription>();
+    private Map<String, WiringEndpointDescription> m_pendingRemoved = new LinkedHashMap<String, WiringEndpointDescription>();
     
     private final WiringEndpointDescription m_localEndpoint = new WiringEndpointDescription();
     
@@ -67,30 +87,55 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
         super.startComponent();
 
         m_executor = Executors.newSingleThreadScheduledExecutor();
-        m_responseListener = new ResponseListener();
-
-        logDebug("Connecting to %s", m_configuration.getConnectUrl());
-        m_etcd = new EtcdClient(URI.create(m_configuration.getConnectUrl()));
-        logDebug("Etcd version is %s", m_etcd.getVersion());
-        m_updater = new EtcdRegistrationUpdater();
 
         // set local node properties (without enpoints)
     	m_localEndpoint.setZone(m_configuration.getZone());
     	m_localEndpoint.setNode(m_configuration.getNode());
+    	m_coalesceWindow = m_configuration.getCoalesceWindow();
 
-        discoverEndpoints();
+        // the snapshot is used before connecting, as etcd might not be reachable yet
+        String snapshotFile = m_configuration.getSnapshotFile();
+        m_snapshotFile = "".equals(snapshotFile) ? null : new File(snapshotFile);
+        readSnapshot();
+
+        logDebug("Connecting to %s", m_configuration.getConnectUrl());
+        m_etcd = new EtcdClient(URI.create(m_configuration.getConnectUrl()));
+
+        // etcd is contacted in the background, as it retries until etcd can be reached, so the endpoints of the
+        // snapshot are available right away
+        m_executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    logDebug("Etcd version is %s", m_etcd.getVersion());
+                    startUpdater();
+                    discoverEndpoints();
+                }
+                catch (Exception e) {
+                    logError("Could not discover endpoints!", e);
+                }
+            }
+        });
     }
 
     @Override
     protected void stopComponent() throws Exception {
 
         try {
-            m_updater.cancel();
+            // the updater is not there yet if etcd was never reached
+            EtcdRegistrationUpdater updater = m_updater;
+            m_updater = null;
+            if (updater != null) {
+                updater.cancel();
+            }
         }
         catch (Exception e) {
             logError("cancel updater failed", e);
         }
 
+        // outstanding watches fail once the client is closed, which should not trigger a new discovery
+        m_watchGeneration.incrementAndGet();
         try {
             m_etcd.close();
         }
@@ -98,14 +143,48 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
             logError("closing etcd client failed", e);
         }
 
+        if (m_snapshotFile != null && !m_provisional) {
+            writeSnapshot();
+        }
+
         m_executor.shutdown();
         m_executor = null;
 
         super.stopComponent();
     }
 
+    private void startUpdater() throws Exception {
+
+        EtcdRegistrationUpdater updater = new EtcdRegistrationUpdater();
+        m_lock.writeLock().lock();
+        try {
+            // endpoints published until now are registered by the updater, later ones by the publisher
+            m_updater = updater;
+            updater.registerPublishedEndpoints();
+        }
+        finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
     private void discoverEndpoints() throws Exception {
-        long index = 0l;
+
+        // watches of a previous discovery are not renewed anymore
+        int generation = m_watchGeneration.incrementAndGet();
+
+        // only the directories of the zones in scope are listed and watched
+        List<String> zones = m_configuration.getDiscoveryZones();
+        List<String> paths = new ArrayList<>();
+        if (zones == null) {
+            paths.add(m_configuration.getRootPath());
+        }
+        else {
+            for (String zone : zones) {
+                paths.add(getRootPath() + zone);
+            }
+        }
+
+        long[] indexes = new long[paths.size()];
         try {
         	
         	// create dirs if not available yet...
@@ -116,16 +195,45 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
 			} catch (Exception e) {
 				// nothing to do, directory exists already
 			}
-        	
-            EtcdKeysResponse response = m_etcd.getDir(rootPath).recursive().send().get();
-            index = getEtcdIndex(response);
+
+            List<WiringEndpointDescription> nodes = new ArrayList<>();
+            for (int i = 0; i < paths.size(); i++) {
+                try {
+                    EtcdKeysResponse response = m_etcd.getDir(paths.get(i)).recursive().send().get();
+                    indexes[i] = getEtcdIndex(response);
+                    if (response.node.dir && response.node.nodes != null) {
+                        if (zones == null) {
+                            addRootEndpoints(response.node, nodes);
+                        }
+                        else {
+                            addZoneEndpoints(response.node, nodes);
+                        }
+                    }
+                }
+                catch (EtcdException e) {
+                    // a zone without nodes yet can be watched all the same
+                    if (zones == null || e.errorCode != ETCD_KEY_NOT_FOUND) {
+                        throw e;
+                    }
+                    indexes[i] = e.index == null ? 0l : e.index;
+                }
+            }
+            long index = 0l;
+            for (long zoneIndex : indexes) {
+                index = Math.max(index, zoneIndex);
+            }
             logDebug("discovering endpoints at etcd index %s", index);
             
         	try {
-	            if (response.node.dir && response.node.nodes != null) {
-	                List<WiringEndpointDescription> nodes = getWiringEndpointDescriptions(response);
-	                setDiscoveredEndpoints(nodes);
+	            // changes collected from earlier watches are covered by the listing
+	            discardPendingChanges();
+	            setDiscoveredEndpoints(nodes);
+	            if (m_provisional) {
+	                logInfo("Replaced endpoints of discovery snapshot at etcd index %s with those at etcd index %s", m_etcdIndex, index);
+	                m_provisional = false;
 	            }
+	            m_etcdIndex = index;
+	            scheduleSnapshot();
         	}
         	catch (Exception e) {
 				logWarning("Failed to set discovered endpoint(s)", e);
@@ -136,49 +244,118 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
             logError("Could not discovery endpoints!", e);
         }
         finally {
-            setDirectoryWatch(index + 1);
+            for (int i = 0; i < paths.size(); i++) {
+                new ResponseListener(paths.get(i), generation).setDirectoryWatch(indexes[i] + 1);
+            }
         }
     }
 
-    private List<WiringEndpointDescription> getWiringEndpointDescriptions(EtcdKeysResponse response) {
-    	
-    	List<WiringEndpointDescription> endpoints = new ArrayList<>();
-    	
+    private void readSnapshot() {
+
+        if (m_snapshotFile == null) {
+            return;
+        }
+        try {
+            EtcdDiscoverySnapshot snapshot = EtcdDiscoverySnapshot.read(m_snapshotFile);
+            if (snapshot == null) {
+                return;
+            }
+            // the endpoints of this node are registered anew
+            List<WiringEndpointDescription> endpoints = new ArrayList<>();
+            for (WiringEndpointDescription endpoint : snapshot.getEndpoints()) {
+                if (!m_localEndpoint.getZone().equals(endpoint.getZone()) || !m_localEndpoint.getNode().equals(endpoint.getNode())) {
+                    endpoints.add(endpoint);
+                }
+            }
+            logInfo("Using %s endpoint(s) of discovery snapshot at etcd index %s until etcd is listed", endpoints.size(), snapshot.getIndex());
+            m_provisional = true;
+            m_etcdIndex = snapshot.getIndex();
+            setDiscoveredEndpoints(endpoints);
+        }
+        catch (IOException e) {
+            logWarning("Failed to read discovery snapshot %s", e, m_snapshotFile);
+        }
+    }
+
+    private void scheduleSnapshot() {
+
+        // a provisional snapshot is not written back, it is replaced once etcd is listed
+        ScheduledExecutorService executor = m_executor;
+        if (m_snapshotFile == null || m_provisional || executor == null || !m_snapshotScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // changes usually come in bursts, so the snapshot is written once they have been handled
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    m_snapshotScheduled.set(false);
+                    writeSnapshot();
+                }
+            }, SNAPSHOT_DELAY, TimeUnit.SECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            m_snapshotScheduled.set(false);
+        }
+    }
+
+    private void writeSnapshot() {
+
+        try {
+            EtcdDiscoverySnapshot.write(m_snapshotFile, m_etcdIndex, getDiscoveredEndpoints());
+        }
+        catch (IOException e) {
+            logWarning("Failed to write discovery snapshot %s", e, m_snapshotFile);
+        }
+    }
+
+    private void addRootEndpoints(EtcdNode rootNode, List<WiringEndpointDescription> endpoints) {
+
         // zones
-    	for (EtcdNode zoneNode : response.node.nodes) {
+    	for (EtcdNode zoneNode : rootNode.nodes) {
     		if(zoneNode.dir && zoneNode.nodes != null) {
+    			addZoneEndpoints(zoneNode, endpoints);
+    		}
+    	}
+    }
 
-    			// nodes
-            	for (EtcdNode nodeNode : zoneNode.nodes) {
-            		if(nodeNode.dir && nodeNode.nodes != null) {
-            	
-            			// wiring endpoints
-                    	for (EtcdNode endpointNode : nodeNode.nodes) {
-                    		if (endpointNode.value != null) {
-                        		WiringEndpointDescription endpoint = getEndpointFromNode(endpointNode, true);
-                        		endpoints.add(endpoint);
-                    		}
-                    	}
-            		}
-            	}
+    private void addZoneEndpoints(EtcdNode zoneNode, List<WiringEndpointDescription> endpoints) {
+
+    	// nodes
+    	for (EtcdNode nodeNode : zoneNode.nodes) {
+    		if(nodeNode.dir && nodeNode.nodes != null) {
+
+    			// wiring endpoints
+    			for (EtcdNode endpointNode : nodeNode.nodes) {
+    				if (endpointNode.value != null) {
+    					WiringEndpointDescription endpoint = getEndpointFromNode(endpointNode, true);
+    					endpoints.add(endpoint);
+    				}
+    			}
     		}
     	}
-    	
-    	return endpoints;
     }
     
-    private void handleDiscoveryNodeChange(EtcdKeysResponse response) throws Exception {
+    private void handleDiscoveryNodeChange(EtcdKeysResponse response, ResponseListener listener) throws Exception {
 
     	long index = 0l;
         try {
             index = response.node.modifiedIndex;
             logInfo("Handling endpoint change at etcd index %s, action %s, key %s", index, response.action.toString(), response.node.key);
             
+            // directories only matter when they disappear, which removes the endpoints beneath them
+            if (response.node.dir) {
+                if (response.action == EtcdKeyAction.delete || response.action == EtcdKeyAction.expire) {
+                    removeNodeDirectory(response.node);
+                }
+            }
+
             // new / updated node
-            if (response.action == EtcdKeyAction.set || response.action == EtcdKeyAction.create || response.action == EtcdKeyAction.update) {
+            else if (response.action == EtcdKeyAction.set || response.action == EtcdKeyAction.create || response.action == EtcdKeyAction.update) {
 
             	WiringEndpointDescription endpoint = getEndpointFromNode(response.node, true);
-                addDiscoveredEndpoint(endpoint);
+                queueEndpointChange(endpoint, false);
 
             }
             
@@ -186,15 +363,17 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
             else if ((response.action == EtcdKeyAction.delete || response.action == EtcdKeyAction.expire)) {
 
             	WiringEndpointDescription endpoint = getEndpointFromNode(response.node, false);
-                removeDiscoveredEndpoint(endpoint);
+                queueEndpointChange(endpoint, true);
 
             }
+            m_etcdIndex = index;
+            scheduleSnapshot();
         }
         catch (Exception e) {
             logError("Could not handle endpoint change!", e);
         }
         finally {
-            setDirectoryWatch(index + 1);
+            listener.setDirectoryWatch(index + 1);
         }
     }
     
@@ -237,6 +416,134 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
     	return endpoint;
     }
     
+    private void removeNodeDirectory(EtcdNode etcdNode) {
+
+    	String all = etcdNode.key.substring(m_configuration.getRootPath().length());
+    	if (all.startsWith(PATH_SEP)) {
+    		all = all.substring(1);
+    	}
+    	if (all.endsWith(PATH_SEP)) {
+    		all = all.substring(0, all.length() - 1);
+    	}
+
+    	// only node directories hold endpoints
+    	String[] parts = all.split(PATH_SEP);
+    	if (parts.length == 2) {
+    		queueNodeRemoval(parts[0], parts[1]);
+    	}
+    }
+
+    /**
+     * Collects a watched change of an endpoint, which replaces earlier changes of the same endpoint that were not
+     * passed on yet. Once the coalesce window has passed, the last state of each endpoint is compared with the
+     * discovered endpoints, so an endpoint that is added and removed again, or removed and added again unchanged,
+     * does not reach the listeners at all.
+     */
+    private void queueEndpointChange(WiringEndpointDescription endpoint, boolean removed) {
+
+        if (m_coalesceWindow == 0) {
+            if (removed) {
+                removeDiscoveredEndpoint(endpoint);
+            }
+            else {
+                addDiscoveredEndpoint(endpoint);
+            }
+            return;
+        }
+
+        boolean schedule;
+        synchronized (m_pendingLock) {
+            schedule = m_pendingChanged.isEmpty() && m_pendingRemoved.isEmpty();
+            if (removed) {
+                m_pendingChanged.remove(endpoint.getId());
+                m_pendingRemoved.put(endpoint.getId(), endpoint);
+            }
+            else {
+                m_pendingRemoved.remove(endpoint.getId());
+                m_pendingChanged.put(endpoint.getId(), endpoint);
+            }
+        }
+        if (schedule) {
+            schedulePendingChanges();
+        }
+    }
+
+    private void queueNodeRemoval(String zone, String node) {
+
+        if (m_coalesceWindow == 0) {
+            removeDiscoveredNode(zone, node);
+            return;
+        }
+
+        List<WiringEndpointDescription> discovered = getDiscoveredEndpoints();
+        boolean schedule;
+        synchronized (m_pendingLock) {
+            boolean empty = m_pendingChanged.isEmpty() && m_pendingRemoved.isEmpty();
+            Iterator<WiringEndpointDescription> iterator = m_pendingChanged.values().iterator();
+            while (iterator.hasNext()) {
+                WiringEndpointDescription endpoint = iterator.next();
+                if (zone.equals(endpoint.getZone()) && node.equals(endpoint.getNode())) {
+                    iterator.remove();
+                    m_pendingRemoved.put(endpoint.getId(), endpoint);
+                }
+            }
+            for (WiringEndpointDescription endpoint : discovered) {
+                if (zone.equals(endpoint.getZone()) && node.equals(endpoint.getNode())) {
+                    m_pendingRemoved.put(endpoint.getId(), endpoint);
+                }
+            }
+            schedule = empty && !m_pendingRemoved.isEmpty();
+        }
+        if (schedule) {
+            schedulePendingChanges();
+        }
+    }
+
+    private void schedulePendingChanges() {
+
+        ScheduledExecutorService executor = m_executor;
+        try {
+            if (executor != null) {
+                executor.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        applyPendingChanges();
+                    }
+                }, m_coalesceWindow, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        catch (RejectedExecutionException e) {
+            // the executor is shut down, do not keep the changes waiting
+        }
+        applyPendingChanges();
+    }
+
+    private void applyPendingChanges() {
+
+        Map<String, WiringEndpointDescription> changed;
+        Map<String, WiringEndpointDescription> removed;
+        synchronized (m_pendingLock) {
+            changed = m_pendingChanged;
+            removed = m_pendingRemoved;
+            m_pendingChanged = new LinkedHashMap<String, WiringEndpointDescription>();
+            m_pendingRemoved = new LinkedHashMap<String, WiringEndpointDescription>();
+        }
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            changeDiscoveredEndpoints(changed.values(), removed.values());
+            scheduleSnapshot();
+        }
+    }
+
+    private void discardPendingChanges() {
+
+        synchronized (m_pendingLock) {
+            m_pendingChanged.clear();
+            m_pendingRemoved.clear();
+        }
+    }
+
     private String getNextPart(String s) {
     	return s.contains(PATH_SEP) ? s.substring(0, s.indexOf(PATH_SEP)) : s;
     }
@@ -276,22 +583,6 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
         return index;
     }
 
-    private void setDirectoryWatch(long index) {
-
-        logDebug("Setting watch for index %s", index);
-        try {
-            m_etcd.get(m_configuration.getRootPath())
-                .waitForChange((int) index)
-                .recursive()
-                .send()
-                .addListener(m_responseListener);
-        }
-        catch (IOException e) {
-            // TODO How do we recover from this?
-            logError("Failed to set new watch on discovery directory!", e);
-        }
-    }
-
     private String getRootPath() {
     	String rootPath = m_configuration.getRootPath();
     	if (!rootPath.endsWith("/")) {
@@ -312,35 +603,101 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
     	return getNodePath(endpoint) + endpoint.getId() + "/";
     }
 
+    /**
+     * Keeps the published endpoints registered in etcd.<br/><br/>
+     * 
+     * With node heartbeats, endpoints are written without a time to live beneath the node directory, which has one
+     * and is refreshed once per period. Otherwise, each endpoint has a time to live and is refreshed on its own.
+     * Nodes without support for node heartbeats cannot parse the events of a node directory, so a cluster only enables
+     * them once every node handles these events.
+     */
     private class EtcdRegistrationUpdater implements Runnable {
 
         private static final int ETCD_REGISTRATION_TTL = 30;
 
+        private final boolean m_nodeHeartbeat;
         private final ScheduledFuture<?> m_future;
 
+        private long m_nodeDirectoryIndex;
+
         public EtcdRegistrationUpdater() throws Exception {
+            m_nodeHeartbeat = m_configuration.isNodeHeartbeat();
+            if (m_nodeHeartbeat) {
+                deleteNodeDirectory();
+            }
+            // the first heartbeat creates the node directory, and registers the published endpoints beneath it
             m_future =
-                m_executor.scheduleAtFixedRate(this, 0, ETCD_REGISTRATION_TTL - 10,
-                    TimeUnit.SECONDS);
+                m_executor.scheduleAtFixedRate(this, m_nodeHeartbeat ? 0 : ETCD_REGISTRATION_TTL - 10,
+                    ETCD_REGISTRATION_TTL - 10, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Registers the endpoints that were published before the updater was started.
+         */
+        private void registerPublishedEndpoints() throws Exception {
+        	if (!m_nodeHeartbeat) {
+        		putPublishedEndpoints(true);
+        	}
         }
 
-        private void putPublishedEndpoints() throws Exception {
+        private void putPublishedEndpoints(boolean isAdded) throws Exception {
 
         	m_lock.readLock().lock();
-        	
-        	for (WiringEndpointDescription endpoint : m_publishedEndpoints.values()) {
-        		putPublishedEndpoint(endpoint, false);
+        	try {
+        		for (WiringEndpointDescription endpoint : m_publishedEndpoints.values()) {
+        			putPublishedEndpoint(endpoint, isAdded);
+        		}
         	}
-        	
-        	m_lock.readLock().unlock();
+        	finally {
+        		m_lock.readLock().unlock();
+        	}
+        }
+
+        private void refreshNodeDirectory() throws Exception {
+
+            String key = getNodePath(m_localEndpoint);
+            EtcdKeysResponse response;
+            boolean created = false;
+            try {
+                response = m_etcd.putDir(key).ttl(ETCD_REGISTRATION_TTL).prevExist(true).send().get();
+            }
+            catch (EtcdException e) {
+                if (e.errorCode != ETCD_KEY_NOT_FOUND) {
+                    throw e;
+                }
+                response = m_etcd.putDir(key).ttl(ETCD_REGISTRATION_TTL).prevExist(false).send().get();
+                created = true;
+            }
+
+            // a new directory is empty, as the previous one expired or the directory was created implicitly by
+            // registering a single endpoint, so all endpoints have to be registered again
+            if (created || response.node.createdIndex != m_nodeDirectoryIndex) {
+                logDebug("Registering published endpoints beneath node directory %s", key);
+                m_nodeDirectoryIndex = response.node.createdIndex;
+                putPublishedEndpoints(false);
+            }
         }
 
 		public void putPublishedEndpoint(WiringEndpointDescription endpoint, boolean isAdded) throws Exception {
 			
-			String key = getEndpointPath(endpoint);
+			final String key = getEndpointPath(endpoint);
 			String value = getEndpointValue(endpoint);
 			
-        	m_etcd.put(key, value).prevExist(!isAdded).ttl(ETCD_REGISTRATION_TTL).send();
+			EtcdKeyPutRequest request = m_etcd.put(key, value);
+			if (!m_nodeHeartbeat) {
+				request.prevExist(!isAdded).ttl(ETCD_REGISTRATION_TTL);
+			}
+
+			// do not wait for the response, so the registrations of many endpoints are sent concurrently
+			request.send().addListener(new IsSimplePromiseResponseHandler<EtcdKeysResponse>() {
+
+				@Override
+				public void onResponse(ResponsePromise<EtcdKeysResponse> promise) {
+					if (promise.getException() != null) {
+						logWarning("Etcd registration of %s failed: %s", key, promise.getException().getMessage());
+					}
+				}
+			});
         }
 
 		private String getEndpointValue(WiringEndpointDescription endpoint) {
@@ -363,7 +720,12 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
 		@Override
         public void run() {
             try {
-            	putPublishedEndpoints();
+            	if (m_nodeHeartbeat) {
+            		refreshNodeDirectory();
+            	}
+            	else {
+            		putPublishedEndpoints(false);
+            	}
             }
             catch (Exception e) {
                 logError("Etcd registration update failed", e);
@@ -373,7 +735,12 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
         public void cancel() {
             try {
                 m_future.cancel(false);
-                deleteLocalEndpoints();
+                if (m_nodeHeartbeat) {
+                    deleteNodeDirectory();
+                }
+                else {
+                    deleteLocalEndpoints();
+                }
             }
             catch (Exception e) {
                 logError("Etcd deregistration update failed", e);
@@ -391,20 +758,66 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
         public void deleteEndpoint(WiringEndpointDescription endpoint) throws Exception {
         	m_etcd.delete(getEndpointPath(endpoint)).send();
         }
+
+        private void deleteNodeDirectory() {
+            // removes the endpoints of this node at once, including those left behind by a previous run
+            try {
+                m_etcd.deleteDir(getNodePath(m_localEndpoint)).recursive().send().get();
+            }
+            catch (EtcdException e) {
+                if (e.errorCode != ETCD_KEY_NOT_FOUND) {
+                    logWarning("Failed to delete node directory: %s", e.getMessage());
+                }
+            }
+            catch (Exception e) {
+                logWarning("Failed to delete node directory", e);
+            }
+        }
         
     }
 
+    /**
+     * Watches a discovery directory, and renews the watch after each change as long as its discovery is current.
+     */
     private class ResponseListener implements IsSimplePromiseResponseHandler<EtcdKeysResponse> {
 
+        private final String m_path;
+        private final int m_generation;
+
+        public ResponseListener(String path, int generation) {
+            m_path = path;
+            m_generation = generation;
+        }
+
+        public void setDirectoryWatch(long index) {
+
+            logDebug("Setting watch on %s for index %s", m_path, index);
+            try {
+                m_etcd.get(m_path)
+                    .waitForChange((int) index)
+                    .recursive()
+                    .send()
+                    .addListener(this);
+            }
+            catch (IOException e) {
+                // TODO How do we recover from this?
+                logError("Failed to set new watch on discovery directory!", e);
+            }
+        }
+
 		@Override
 		public void onResponse(ResponsePromise<EtcdKeysResponse> promise) {
+			if (m_generation != m_watchGeneration.get()) {
+				// replaced by a later discovery, which also covers this change
+				return;
+			}
 			try {
 				if (promise.getException() != null) {
 					logWarning("etcd watch received exception: %s", promise.getException().getMessage());
 					discoverEndpoints();
 					return;
 				}
-				handleDiscoveryNodeChange(promise.get());
+				handleDiscoveryNodeChange(promise.get(), this);
 			} catch (Exception e) {
 				logWarning("Could not get node(s)", e);
 			}
@@ -416,7 +829,11 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
 		m_lock.writeLock().lock();
 		m_publishedEndpoints.put(endpoint.getId(), endpoint);
 		try {
-			m_updater.putPublishedEndpoint(endpoint, true);
+			// without an updater, etcd was not reached yet and the endpoint is registered once it is
+			EtcdRegistrationUpdater updater = m_updater;
+			if (updater != null) {
+				updater.putPublishedEndpoint(endpoint, true);
+			}
 		} catch (Exception e) {
 			logError("error publishing endpoint %s", e, endpoint);
 		}
@@ -428,7 +845,10 @@ public final class EtcdNodeDiscovery extends AbstractDiscovery {
 		m_lock.writeLock().lock();
 		m_publishedEndpoints.remove(endpoint.getId());
 		try {
-			m_updater.deleteEndpoint(endpoint);
+			EtcdRegistrationUpdater updater = m_updater;
+			if (updater != null) {
+				updater.deleteEndpoint(endpoint);
+			}
 		} catch (Exception e) {
 			logError("error unpublishing endpoint %s", e, endpoint);
 		}
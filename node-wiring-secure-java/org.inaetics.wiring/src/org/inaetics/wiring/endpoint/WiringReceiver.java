@@ -3,9 +3,53 @@
  */
 package org.inaetics.wiring.endpoint;
 
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public interface WiringReceiver {
 
 	public String messageReceived(String message) throws Exception;
+
+	/**
+	 * Handles a message in its encoded form, without any charset conversion by the wiring admin.
+	 * <p>
+	 * The default implementation decodes the message as UTF-8 and adapts it to
+	 * {@link #messageReceived(String)}. Receivers of binary or large payloads should override it.
+	 * 
+	 * @param message the received message, from its position to its limit.
+	 * @return the response, can be <code>null</code>.
+	 */
+	public default ByteBuffer messageReceived(ByteBuffer message) throws Exception {
+		String response = messageReceived(StandardCharsets.UTF_8.decode(message.duplicate()).toString());
+		return response == null ? null : ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Handles a message and streams the response, so it does not need to be held in memory as a whole.
+	 * <p>
+	 * The default implementation adapts to {@link #messageReceived(ByteBuffer)} and writes its
+	 * response. Receivers of large responses should override it. In case it throws an exception after
+	 * writing part of the response, the wiring admin aborts the response, so the sender never sees a
+	 * truncated one.
+	 * 
+	 * @param message the received message, from its position to its limit;
+	 * @param response the output stream to write the response to, should not be closed.
+	 */
+	public default void messageReceived(ByteBuffer message, OutputStream response) throws Exception {
+		ByteBuffer result = messageReceived(message);
+		if (result == null) {
+			return;
+		}
+		if (result.hasArray()) {
+			response.write(result.array(), result.arrayOffset() + result.position(), result.remaining());
+		}
+		else {
+			byte[] bytes = new byte[result.remaining()];
+			result.duplicate().get(bytes);
+			response.write(bytes);
+		}
+	}
 	
 	public void wiringEndpointAdded(String wireId);
 	public void wiringEndpointRemoved(String wireId);
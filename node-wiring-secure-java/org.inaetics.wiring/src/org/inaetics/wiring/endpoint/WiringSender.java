@@ -3,9 +3,116 @@
  */
 package org.inaetics.wiring.endpoint;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public interface WiringSender {
 
 	public String sendMessage(String message) throws Exception;
+
+	/**
+	 * Sends a message without blocking the calling thread.
+	 * <p>
+	 * Dependent actions may be run by the thread that received the response, so blocking work
+	 * should be chained using the asynchronous methods of {@link CompletableFuture}. The default
+	 * implementation calls {@link #sendMessage(String)} on the common pool, wiring admins that send
+	 * messages asynchronously override it.
+	 * 
+	 * @param message the message to send.
+	 * @return a future that completes with the response, or exceptionally in case sending failed.
+	 */
+	public default CompletableFuture<String> sendMessageAsync(final String message) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+			@Override
+			public String get() {
+				try {
+					return sendMessage(message);
+				}
+				catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends a message in its encoded form, without any charset conversion by the wiring admin.
+	 * <p>
+	 * The default implementation adapts to {@link #sendMessage(String)} using UTF-8, wiring admins
+	 * that transfer bytes override it.
+	 * 
+	 * @param message the message to send, from its position to its limit.
+	 * @return the response, can be <code>null</code>.
+	 */
+	public default ByteBuffer sendMessage(ByteBuffer message) throws Exception {
+		String response = sendMessage(StandardCharsets.UTF_8.decode(message.duplicate()).toString());
+		return response == null ? null : ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends a message in its encoded form without blocking the calling thread.
+	 * <p>
+	 * The default implementation adapts to {@link #sendMessageAsync(String)} using UTF-8, wiring
+	 * admins that transfer bytes override it.
+	 * 
+	 * @param message the message to send, from its position to its limit.
+	 * @return a future that completes with the response, or exceptionally in case sending failed.
+	 */
+	public default CompletableFuture<ByteBuffer> sendMessageAsync(ByteBuffer message) {
+		return sendMessageAsync(StandardCharsets.UTF_8.decode(message.duplicate()).toString()).thenApply(new Function<String, ByteBuffer>() {
+			@Override
+			public ByteBuffer apply(String response) {
+				return response == null ? null : ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+	}
+
+	/**
+	 * Sends a message and returns its response as a stream, so a large response does not need to be
+	 * held in memory as a whole.
+	 * <p>
+	 * The stream fails with an {@link java.io.IOException} in case the response could not be received
+	 * completely. It should always be closed, closing it before its end discards the rest of the
+	 * response. The default implementation adapts to {@link #sendMessage(ByteBuffer)}, wiring admins
+	 * that receive responses incrementally override it.
+	 * 
+	 * @param message the message to send, from its position to its limit.
+	 * @return the response, empty if there is none.
+	 */
+	public default InputStream sendMessageStreamed(ByteBuffer message) throws Exception {
+		ByteBuffer response = sendMessage(message);
+		if (response == null) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		byte[] bytes = new byte[response.remaining()];
+		response.get(bytes);
+		return new ByteArrayInputStream(bytes);
+	}
+
+	/**
+	 * Sends a message to which the sender expects no reply, such as an event.
+	 * <p>
+	 * The returned future completes once the message is delivered, which can be before the receiver
+	 * has processed it. Failures of the receiver are not reported to the sender. The default
+	 * implementation adapts to {@link #sendMessageAsync(ByteBuffer)} and ignores the response, wiring
+	 * admins that acknowledge messages before processing them override it.
+	 * 
+	 * @param message the message to send, from its position to its limit.
+	 * @return a future that completes once the message is delivered, or exceptionally in case sending failed.
+	 */
+	public default CompletableFuture<Void> sendOneWayMessage(ByteBuffer message) {
+		return sendMessageAsync(message).thenApply(new Function<ByteBuffer, Void>() {
+			@Override
+			public Void apply(ByteBuffer response) {
+				return null;
+			}
+		});
+	}
 	
 }